@@ -17,30 +17,44 @@
 
 package ua.nanit.limbo.configuration;
 
+import io.netty.channel.unix.DomainSocketAddress;
 import org.spongepowered.configurate.ConfigurationNode;
 import org.spongepowered.configurate.ConfigurationOptions;
+import org.spongepowered.configurate.serialize.SerializationException;
 import org.spongepowered.configurate.serialize.TypeSerializerCollection;
 import org.spongepowered.configurate.yaml.YamlConfigurationLoader;
+import ua.nanit.limbo.protocol.registry.State;
 import ua.nanit.limbo.util.Colors;
 import ua.nanit.limbo.server.data.BossBar;
 import ua.nanit.limbo.server.data.InfoForwarding;
+import ua.nanit.limbo.server.data.Listener;
 import ua.nanit.limbo.server.data.PingData;
 import ua.nanit.limbo.server.data.Title;
+import ua.nanit.limbo.server.data.TrafficLimits;
+import ua.nanit.limbo.util.Cidr;
+import ua.nanit.limbo.util.CidrSet;
 
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.InetAddress;
 import java.net.SocketAddress;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
 
 public final class LimboConfig {
 
     private final Path root;
 
-    private SocketAddress address;
+    private List<Listener> listeners;
     private int maxPlayers;
     private PingData pingData;
 
@@ -65,16 +79,60 @@ public final class LimboConfig {
 
     private InfoForwarding infoForwarding;
     private long readTimeout;
+    private Map<State, Long> stateTimeouts;
+    private long keepAliveInterval;
+    private int keepAliveMaxMissed;
     private int debugLevel;
 
     private boolean useEpoll;
     private int bossGroupSize;
     private int workerGroupSize;
+    private int writeBufferLowWaterMark;
+    private int writeBufferHighWaterMark;
+    private long unwritableTimeout;
 
-    private boolean useTrafficLimits;
-    private int maxPacketSize;
-    private double interval;
-    private double maxPacketRate;
+    private TrafficLimits trafficLimits;
+
+    private boolean useProxyProtocol;
+    private CidrSet proxyProtocolTrusted;
+
+    private boolean useIpLimits;
+    private int maxConnectionsPerIp;
+    private double acceptRatePerIp;
+    private int acceptBurstPerIp;
+
+    private boolean useIpFilter;
+    private Path blocklistFile;
+    private Path allowlistFile;
+    private long ipFilterReloadInterval;
+
+    private boolean useLoginQueue;
+    private double loginRate;
+    private int loginBurst;
+    private long loginQueueMaxWait;
+
+    private boolean useMemoryGuard;
+    private long memoryCheckInterval;
+    private double memoryShedStatus;
+    private double memoryPauseLogins;
+    private double memoryRefuseAccepts;
+    private double memoryHysteresis;
+
+    private boolean useEventLoopMonitor;
+    private long eventLoopProbeInterval;
+    private long eventLoopLagWarning;
+
+    private boolean useCapture;
+    private Path captureDirectory;
+    private long captureMaxFileSize;
+    private int captureMaxOpenFiles;
+
+    private boolean useMetrics;
+    private SocketAddress metricsAddress;
+
+    private boolean useStatusIpLimits;
+    private double statusRatePerIp;
+    private int statusBurstPerIp;
 
     public LimboConfig(Path root) {
         this.root = root;
@@ -89,9 +147,14 @@ public final class LimboConfig {
 
         ConfigurationNode conf = loader.load();
 
-        address = conf.node("bind").get(SocketAddress.class);
         maxPlayers = conf.node("maxPlayers").getInt();
         pingData = conf.node("ping").get(PingData.class);
+
+        String favicon = conf.node("ping", "favicon").getString("");
+        if (!favicon.isEmpty()) {
+            byte[] icon = Files.readAllBytes(root.resolve(favicon));
+            pingData.setFavicon("data:image/png;base64," + Base64.getEncoder().encodeToString(icon));
+        }
         dimensionType = conf.node("dimension").getString("the_end");
         if (dimensionType.equalsIgnoreCase("nether")) {
             dimensionType = "the_nether";
@@ -126,17 +189,129 @@ public final class LimboConfig {
         }
 
         infoForwarding = conf.node("infoForwarding").get(InfoForwarding.class);
-        readTimeout = conf.node("readTimeout").getLong();
+        readTimeout = conf.node("timeouts", "read").getLong(conf.node("readTimeout").getLong(30000));
+        stateTimeouts = new EnumMap<>(State.class);
+        stateTimeouts.put(State.HANDSHAKING, conf.node("timeouts", "handshake").getLong(5000));
+        stateTimeouts.put(State.STATUS, conf.node("timeouts", "status").getLong(5000));
+        stateTimeouts.put(State.LOGIN, conf.node("timeouts", "login").getLong(10000));
+        stateTimeouts.put(State.CONFIGURATION, conf.node("timeouts", "configuration").getLong(30000));
+        stateTimeouts.put(State.PLAY, conf.node("timeouts", "play").getLong(0));
+        keepAliveInterval = conf.node("keepAlive", "interval").getLong(5000);
+        keepAliveMaxMissed = conf.node("keepAlive", "maxMissed").getInt(3);
         debugLevel = conf.node("debugLevel").getInt();
 
         useEpoll = conf.node("netty", "useEpoll").getBoolean(true);
         bossGroupSize = conf.node("netty", "threads", "bossGroup").getInt(1);
         workerGroupSize = conf.node("netty", "threads", "workerGroup").getInt(4);
+        writeBufferLowWaterMark = conf.node("netty", "writeBuffer", "lowWaterMark").getInt(32768);
+        writeBufferHighWaterMark = Math.max(writeBufferLowWaterMark,
+                conf.node("netty", "writeBuffer", "highWaterMark").getInt(131072));
+        unwritableTimeout = conf.node("netty", "writeBuffer", "unwritableTimeout").getLong(10000);
+
+        trafficLimits = conf.node("traffic").get(TrafficLimits.class);
+
+        useProxyProtocol = conf.node("proxyProtocol", "enable").getBoolean(false);
+        List<Cidr> trustedNetworks = new ArrayList<>();
+
+        for (String network : conf.node("proxyProtocol", "trusted").getList(String.class, Collections.emptyList())) {
+            trustedNetworks.add(Cidr.parse(network));
+        }
+
+        proxyProtocolTrusted = CidrSet.of(trustedNetworks);
+
+        useIpLimits = conf.node("ipLimits", "enable").getBoolean(false);
+        maxConnectionsPerIp = conf.node("ipLimits", "maxConnections").getInt(-1);
+        acceptRatePerIp = conf.node("ipLimits", "acceptRate").getDouble(-1.0);
+        acceptBurstPerIp = conf.node("ipLimits", "acceptBurst").getInt(1);
+
+        useIpFilter = conf.node("ipFilter", "enable").getBoolean(false);
+        blocklistFile = root.resolve(conf.node("ipFilter", "blocklist").getString("blocklist.txt"));
+        allowlistFile = root.resolve(conf.node("ipFilter", "allowlist").getString("allowlist.txt"));
+        ipFilterReloadInterval = Math.max(1, conf.node("ipFilter", "reloadInterval").getLong(30));
+
+        useLoginQueue = conf.node("loginQueue", "enable").getBoolean(false);
+        loginRate = conf.node("loginQueue", "rate").getDouble(200.0);
+        loginBurst = conf.node("loginQueue", "burst").getInt(500);
+        loginQueueMaxWait = conf.node("loginQueue", "maxWait").getLong(20000);
+
+        useMemoryGuard = conf.node("memoryGuard", "enable").getBoolean(false);
+        memoryCheckInterval = Math.max(100, conf.node("memoryGuard", "checkInterval").getLong(1000));
+        memoryShedStatus = conf.node("memoryGuard", "shedStatus").getDouble(80.0);
+        memoryPauseLogins = conf.node("memoryGuard", "pauseLogins").getDouble(88.0);
+        memoryRefuseAccepts = conf.node("memoryGuard", "refuseAccepts").getDouble(94.0);
+        memoryHysteresis = conf.node("memoryGuard", "hysteresis").getDouble(5.0);
+
+        useEventLoopMonitor = conf.node("eventLoopMonitor", "enable").getBoolean(true);
+        eventLoopProbeInterval = Math.max(10, conf.node("eventLoopMonitor", "interval").getLong(500));
+        eventLoopLagWarning = conf.node("eventLoopMonitor", "warnThreshold").getLong(100);
+
+        useCapture = conf.node("capture", "enable").getBoolean(false);
+        captureDirectory = root.resolve(conf.node("capture", "directory").getString("captures"));
+        captureMaxFileSize = Math.max(1024, conf.node("capture", "maxFileSize").getLong(16) * 1024 * 1024);
+        captureMaxOpenFiles = Math.max(1, conf.node("capture", "maxOpenFiles").getInt(64));
+
+        useMetrics = conf.node("metrics", "enable").getBoolean(false);
+        if (useMetrics) {
+            metricsAddress = conf.node("metrics", "bind").get(SocketAddress.class);
+        }
+
+        useStatusIpLimits = conf.node("status", "ipLimits", "enable").getBoolean(false);
+        statusRatePerIp = conf.node("status", "ipLimits", "rate").getDouble(1.0);
+        statusBurstPerIp = conf.node("status", "ipLimits", "burst").getInt(5);
+
+        listeners = loadListeners(conf);
+    }
+
+    private List<Listener> loadListeners(ConfigurationNode conf) throws SerializationException {
+        List<Listener> result = new ArrayList<>();
+
+        if (conf.node("listeners").empty()) {
+            // Legacy single bind section with optional unix socket
+            SocketAddress address = conf.node("bind").get(SocketAddress.class);
+            String unixPath = conf.node("bind", "path").getString("");
+
+            if (address != null)
+                result.add(new Listener("default", address, 0, 0, trafficLimits, infoForwarding, useProxyProtocol, useIpLimits));
+
+            if (!unixPath.isEmpty())
+                result.add(new Listener("unix", new DomainSocketAddress(unixPath), 0, 0, trafficLimits, infoForwarding, useProxyProtocol, useIpLimits));
+        } else {
+            int index = 0;
+
+            for (ConfigurationNode node : conf.node("listeners").childrenList()) {
+                result.add(loadListener(node, index++));
+            }
+        }
 
-        useTrafficLimits = conf.node("traffic", "enable").getBoolean(false);
-        maxPacketSize = conf.node("traffic", "maxPacketSize").getInt(-1);
-        interval = conf.node("traffic", "interval").getDouble(-1.0);
-        maxPacketRate = conf.node("traffic", "maxPacketRate").getDouble(-1.0);
+        if (result.isEmpty())
+            throw new SerializationException("Nothing to bind. Set port or unix socket path in bind section");
+
+        return result;
+    }
+
+    private Listener loadListener(ConfigurationNode node, int index) throws SerializationException {
+        String name = node.node("name").getString("listener-" + index);
+        String unixPath = node.node("bind", "path").getString("");
+        SocketAddress address = unixPath.isEmpty()
+                ? node.node("bind").get(SocketAddress.class)
+                : new DomainSocketAddress(unixPath);
+
+        if (address == null)
+            throw new SerializationException("Listener " + name + " has no address to bind");
+
+        TrafficLimits traffic = node.node("traffic").virtual()
+                ? trafficLimits
+                : node.node("traffic").get(TrafficLimits.class);
+        InfoForwarding forwarding = node.node("infoForwarding").virtual()
+                ? infoForwarding
+                : node.node("infoForwarding").get(InfoForwarding.class);
+
+        return new Listener(name, address,
+                node.node("threads", "bossGroup").getInt(0),
+                node.node("threads", "workerGroup").getInt(0),
+                traffic, forwarding,
+                node.node("proxyProtocol").getBoolean(useProxyProtocol),
+                node.node("ipLimits").getBoolean(useIpLimits));
     }
 
     private BufferedReader getReader() throws IOException {
@@ -159,14 +334,15 @@ public final class LimboConfig {
         return TypeSerializerCollection.builder()
                 .register(SocketAddress.class, new SocketAddressSerializer())
                 .register(InfoForwarding.class, new InfoForwarding.Serializer())
+                .register(TrafficLimits.class, new TrafficLimits.Serializer())
                 .register(PingData.class, new PingData.Serializer())
                 .register(BossBar.class, new BossBar.Serializer())
                 .register(Title.class, new Title.Serializer())
                 .build();
     }
 
-    public SocketAddress getAddress() {
-        return address;
+    public List<Listener> getListeners() {
+        return listeners;
     }
 
     public int getMaxPlayers() {
@@ -193,6 +369,22 @@ public final class LimboConfig {
         return readTimeout;
     }
 
+    /**
+     * @param state Connection state
+     * @return Max time in milliseconds which connection can spend in the state, or 0 if not limited
+     */
+    public long getStateTimeout(State state) {
+        return stateTimeouts.getOrDefault(state, 0L);
+    }
+
+    public long getKeepAliveInterval() {
+        return keepAliveInterval;
+    }
+
+    public int getKeepAliveMaxMissed() {
+        return keepAliveMaxMissed;
+    }
+
     public int getDebugLevel() {
         return debugLevel;
     }
@@ -261,19 +453,151 @@ public final class LimboConfig {
         return workerGroupSize;
     }
 
-    public boolean isUseTrafficLimits() {
-        return useTrafficLimits;
+    public int getWriteBufferLowWaterMark() {
+        return writeBufferLowWaterMark;
+    }
+
+    public int getWriteBufferHighWaterMark() {
+        return writeBufferHighWaterMark;
+    }
+
+    public long getUnwritableTimeout() {
+        return unwritableTimeout;
+    }
+
+    public TrafficLimits getTrafficLimits() {
+        return trafficLimits;
+    }
+
+    public boolean isUseProxyProtocol() {
+        return useProxyProtocol;
+    }
+
+    public CidrSet getProxyProtocolTrusted() {
+        return proxyProtocolTrusted;
+    }
+
+    public boolean isProxyProtocolTrusted(InetAddress address) {
+        return proxyProtocolTrusted.contains(address);
+    }
+
+    public boolean isUseIpLimits() {
+        return useIpLimits;
+    }
+
+    public int getMaxConnectionsPerIp() {
+        return maxConnectionsPerIp;
+    }
+
+    public double getAcceptRatePerIp() {
+        return acceptRatePerIp;
+    }
+
+    public int getAcceptBurstPerIp() {
+        return acceptBurstPerIp;
+    }
+
+    public boolean isUseIpFilter() {
+        return useIpFilter;
+    }
+
+    public Path getBlocklistFile() {
+        return blocklistFile;
+    }
+
+    public Path getAllowlistFile() {
+        return allowlistFile;
+    }
+
+    public long getIpFilterReloadInterval() {
+        return ipFilterReloadInterval;
+    }
+
+    public boolean isUseLoginQueue() {
+        return useLoginQueue;
+    }
+
+    public double getLoginRate() {
+        return loginRate;
+    }
+
+    public int getLoginBurst() {
+        return loginBurst;
+    }
+
+    public long getLoginQueueMaxWait() {
+        return loginQueueMaxWait;
+    }
+
+    public boolean isUseMemoryGuard() {
+        return useMemoryGuard;
+    }
+
+    public long getMemoryCheckInterval() {
+        return memoryCheckInterval;
+    }
+
+    public double getMemoryShedStatus() {
+        return memoryShedStatus;
+    }
+
+    public double getMemoryPauseLogins() {
+        return memoryPauseLogins;
+    }
+
+    public double getMemoryRefuseAccepts() {
+        return memoryRefuseAccepts;
+    }
+
+    public double getMemoryHysteresis() {
+        return memoryHysteresis;
+    }
+
+    public boolean isUseStatusIpLimits() {
+        return useStatusIpLimits;
+    }
+
+    public double getStatusRatePerIp() {
+        return statusRatePerIp;
+    }
+
+    public int getStatusBurstPerIp() {
+        return statusBurstPerIp;
+    }
+
+    public boolean isUseEventLoopMonitor() {
+        return useEventLoopMonitor;
+    }
+
+    public long getEventLoopProbeInterval() {
+        return eventLoopProbeInterval;
+    }
+
+    public long getEventLoopLagWarning() {
+        return eventLoopLagWarning;
+    }
+
+    public boolean isUseCapture() {
+        return useCapture;
+    }
+
+    public Path getCaptureDirectory() {
+        return captureDirectory;
+    }
+
+    public long getCaptureMaxFileSize() {
+        return captureMaxFileSize;
     }
 
-    public int getMaxPacketSize() {
-        return maxPacketSize;
+    public int getCaptureMaxOpenFiles() {
+        return captureMaxOpenFiles;
     }
 
-    public double getInterval() {
-        return interval;
+    public boolean isUseMetrics() {
+        return useMetrics;
     }
 
-    public double getMaxPacketRate() {
-        return maxPacketRate;
+    public SocketAddress getMetricsAddress() {
+        return metricsAddress;
     }
 }
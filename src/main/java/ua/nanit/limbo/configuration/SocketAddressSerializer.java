@@ -33,6 +33,11 @@ public class SocketAddressSerializer implements TypeSerializer<SocketAddress> {
         int port = node.node("port").getInt();
         SocketAddress address;
 
+        if (port < 0) {
+            // TCP listener is disabled
+            return null;
+        }
+
         if (ip == null || ip.isEmpty()) {
             address = new InetSocketAddress(port);
         } else {
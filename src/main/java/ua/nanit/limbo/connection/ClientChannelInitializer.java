@@ -20,38 +20,65 @@ package ua.nanit.limbo.connection;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
-import io.netty.handler.timeout.ReadTimeoutHandler;
+import io.netty.handler.codec.haproxy.HAProxyMessageDecoder;
 import ua.nanit.limbo.connection.pipeline.*;
 import ua.nanit.limbo.server.LimboServer;
+import ua.nanit.limbo.server.data.Listener;
+import ua.nanit.limbo.server.data.TrafficLimits;
 
-import java.util.concurrent.TimeUnit;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 
 public class ClientChannelInitializer extends ChannelInitializer<Channel> {
 
     private final LimboServer server;
+    private final Listener listener;
+    private final AcceptFilterHandler acceptFilter;
 
-    public ClientChannelInitializer(LimboServer server) {
+    /**
+     * @param server Server instance
+     * @param listener Listener which accepted connections belong to
+     * @param acceptFilter Filter of listener to check addresses from PROXY header. Nullable
+     */
+    public ClientChannelInitializer(LimboServer server, Listener listener, AcceptFilterHandler acceptFilter) {
         this.server = server;
+        this.listener = listener;
+        this.acceptFilter = acceptFilter;
     }
 
     @Override
     protected void initChannel(Channel channel) {
         ChannelPipeline pipeline = channel.pipeline();
 
-        PacketDecoder decoder = new PacketDecoder();
-        PacketEncoder encoder = new PacketEncoder();
-        ClientConnection connection = new ClientConnection(channel, server, decoder, encoder);
+        ConnectionStats stats = server.getConnectionStats();
+        PacketDecoder decoder = new PacketDecoder(stats);
+        PacketEncoder encoder = new PacketEncoder(stats);
+        DeadlineHandler deadlines = new DeadlineHandler(server.getTimer(), server.getConfig(), stats);
+        ClientConnection connection = new ClientConnection(channel, server, listener, decoder, encoder, deadlines);
 
-        pipeline.addLast("timeout", new ReadTimeoutHandler(server.getConfig().getReadTimeout(),
-                TimeUnit.MILLISECONDS));
-        pipeline.addLast("frame_decoder", new VarIntFrameDecoder());
-        pipeline.addLast("frame_encoder", new VarIntLengthEncoder());
+        pipeline.addLast("timeout", deadlines);
 
-        if (server.getConfig().isUseTrafficLimits()) {
+        if (listener.isUseProxyProtocol() && isTrustedProxy(channel.remoteAddress())) {
+            pipeline.addLast("haproxy_decoder", new HAProxyMessageDecoder());
+            pipeline.addLast("haproxy_handler", new HAProxyMessageHandler(connection, acceptFilter));
+        }
+
+        // Address filter is checked on the first read, when PROXY header is already applied
+        if (server.getTrafficCapture().isEnabled()) {
+            pipeline.addLast("capture", new CaptureHandler(server.getTrafficCapture(), connection));
+        }
+
+        pipeline.addLast("frame_decoder", new VarIntFrameDecoder(stats));
+        pipeline.addLast("frame_encoder", new VarIntLengthEncoder(stats));
+
+        TrafficLimits trafficLimits = listener.getTrafficLimits();
+
+        if (trafficLimits.isEnabled()) {
             pipeline.addLast("traffic_limit", new ChannelTrafficHandler(
-                    server.getConfig().getMaxPacketSize(),
-                    server.getConfig().getInterval(),
-                    server.getConfig().getMaxPacketRate()
+                    trafficLimits.getMaxPacketSize(),
+                    trafficLimits.getInterval(),
+                    trafficLimits.getMaxPacketRate(),
+                    stats
             ));
         }
 
@@ -60,4 +87,13 @@ public class ClientChannelInitializer extends ChannelInitializer<Channel> {
         pipeline.addLast("handler", connection);
     }
 
+    private boolean isTrustedProxy(SocketAddress address) {
+        if (!(address instanceof InetSocketAddress))
+            return false;
+
+        InetSocketAddress inetAddress = (InetSocketAddress) address;
+        return inetAddress.getAddress() != null
+                && server.getConfig().isProxyProtocolTrusted(inetAddress.getAddress());
+    }
+
 }
@@ -21,54 +21,92 @@ import com.grack.nanojson.JsonArray;
 import com.grack.nanojson.JsonObject;
 import com.grack.nanojson.JsonParser;
 import com.grack.nanojson.JsonParserException;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import org.jetbrains.annotations.NotNull;
+import ua.nanit.limbo.connection.pipeline.DeadlineHandler;
+import ua.nanit.limbo.connection.pipeline.HAProxyMessageHandler;
 import ua.nanit.limbo.connection.pipeline.PacketDecoder;
 import ua.nanit.limbo.connection.pipeline.PacketEncoder;
 import ua.nanit.limbo.protocol.ByteMessage;
 import ua.nanit.limbo.protocol.Packet;
 import ua.nanit.limbo.protocol.PacketSnapshot;
 import ua.nanit.limbo.protocol.packets.login.PacketDisconnect;
-import ua.nanit.limbo.protocol.packets.play.PacketKeepAlive;
 import ua.nanit.limbo.protocol.registry.State;
 import ua.nanit.limbo.protocol.registry.Version;
+import ua.nanit.limbo.server.IpConnectionLimiter;
 import ua.nanit.limbo.server.LimboServer;
 import ua.nanit.limbo.server.Log;
+import ua.nanit.limbo.server.jfr.LimboEvents;
+import ua.nanit.limbo.server.data.InfoForwarding;
+import ua.nanit.limbo.server.data.Listener;
 import ua.nanit.limbo.util.UuidUtil;
 
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
-import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
 public class ClientConnection extends ChannelInboundHandlerAdapter {
 
+    private static final int REGISTRY_DATA_CHUNK = 4;
+
     private final LimboServer server;
+    private final Listener listener;
     private final Channel channel;
     private final GameProfile gameProfile;
 
     private final PacketDecoder decoder;
     private final PacketEncoder encoder;
+    private final DeadlineHandler deadlines;
+    private final ConnectionStats stats;
+    private final long createdAt;
+    private final long[] joinPhases = new long[JoinPhase.values().length];
+    private long lastJoinMark;
+    private boolean joinRecorded;
 
     private State state;
     private Version clientVersion;
     private SocketAddress address;
 
     private int velocityLoginMessageId = -1;
-
-    public ClientConnection(Channel channel, LimboServer server, PacketDecoder decoder, PacketEncoder encoder) {
+    private int admissionStripe = -1;
+    private boolean admissionConfirmed;
+
+    private ChannelHandlerContext frameEncoderContext;
+    private List<PacketSnapshot> registryData;
+    private int registryDataIndex;
+    private int keepAliveSlot = -1;
+    private int keepAliveIndex = -1;
+    private long keepAliveId;
+    private long keepAliveSentAt;
+    private boolean keepAlivePending;
+    private boolean keepAliveTicked;
+    private volatile long lastRtt = -1;
+    private volatile long smoothedRtt = -1;
+    private int missedKeepAlives;
+
+    public ClientConnection(Channel channel, LimboServer server, Listener listener,
+                            PacketDecoder decoder, PacketEncoder encoder, DeadlineHandler deadlines) {
         this.server = server;
+        this.listener = listener;
         this.channel = channel;
         this.decoder = decoder;
         this.encoder = encoder;
+        this.deadlines = deadlines;
+        this.stats = server.getConnectionStats();
+        this.createdAt = System.nanoTime();
+        this.lastJoinMark = createdAt;
         this.address = channel.remoteAddress();
         this.gameProfile = new GameProfile();
     }
@@ -85,6 +123,13 @@ public class ClientConnection extends ChannelInboundHandlerAdapter {
         return address;
     }
 
+    /**
+     * @return Time of connection from {@link System#nanoTime()}
+     */
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
     public Version getClientVersion() {
         return clientVersion;
     }
@@ -93,11 +138,42 @@ public class ClientConnection extends ChannelInboundHandlerAdapter {
         return gameProfile;
     }
 
+    public Listener getListener() {
+        return listener;
+    }
+
+    public InfoForwarding getInfoForwarding() {
+        return listener.getInfoForwarding();
+    }
+
+    public Channel getChannel() {
+        return channel;
+    }
+
+    @Override
+    public void channelActive(@NotNull ChannelHandlerContext ctx) throws Exception {
+        stats.onOpened();
+
+        // Behind PROXY protocol the event is emitted when the real address is known
+        if (ctx.pipeline().get(HAProxyMessageHandler.class) == null)
+            LimboEvents.connectionAccepted(address);
+
+        super.channelActive(ctx);
+    }
+
     @Override
     public void channelInactive(@NotNull ChannelHandlerContext ctx) throws Exception {
-        if (state.equals(State.PLAY) || state.equals(State.CONFIGURATION)) {
+        stats.onClosed(state != null ? state : State.HANDSHAKING);
+        if (state == State.PLAY || state == State.CONFIGURATION) {
             server.getConnections().removeConnection(this);
         }
+        if (keepAliveSlot != -1) {
+            server.getKeepAliveScheduler().unregister(this);
+        }
+        if (admissionStripe != -1) {
+            server.getAdmission().release(admissionStripe, admissionConfirmed);
+            admissionStripe = -1;
+        }
         super.channelInactive(ctx);
     }
 
@@ -120,15 +196,21 @@ public class ClientConnection extends ChannelInboundHandlerAdapter {
     }
 
     public void fireLoginSuccess() {
-        if (server.getConfig().getInfoForwarding().isModern() && velocityLoginMessageId == -1) {
-            disconnectLogin("You need to connect with Velocity");
+        if (getInfoForwarding().isModern() && velocityLoginMessageId == -1) {
+            disconnectLogin(DisconnectReason.VELOCITY_REQUIRED);
             return;
         }
 
         sendPacket(PacketSnapshots.PACKET_LOGIN_SUCCESS);
+        markJoinPhase(JoinPhase.LOGIN);
 
         server.getConnections().addConnection(this);
 
+        if (admissionStripe != -1 && !admissionConfirmed) {
+            server.getAdmission().confirm();
+            admissionConfirmed = true;
+        }
+
         // Preparing for configuration mode
         if (clientVersion.moreOrEqual(Version.V1_20_2)) {
             updateEncoderState(State.CONFIGURATION);
@@ -138,7 +220,25 @@ public class ClientConnection extends ChannelInboundHandlerAdapter {
         spawnPlayer();
     }
 
+    /**
+     * Called when login is delayed by login queue. Player waits in LOGIN state,
+     * so its deadline is paused while queue limits the wait itself
+     */
+    public void onLoginQueued() {
+        deadlines.pauseState();
+    }
+
+    public void onLoginDequeued() {
+        if (isConnected()) {
+            deadlines.updateState(state);
+            fireLoginSuccess();
+        }
+    }
+
     public void spawnPlayer() {
+        if (clientVersion.moreOrEqual(Version.V1_20_2))
+            markJoinPhase(JoinPhase.CONFIGURATION);
+
         updateState(State.PLAY);
 
         Runnable sendPlayPackets = () -> {
@@ -161,20 +261,21 @@ public class ClientConnection extends ChannelInboundHandlerAdapter {
                 writePacket(PacketSnapshots.PACKET_DECLARE_COMMANDS);
 
                 if (PacketSnapshots.PACKET_PLUGIN_MESSAGE != null)
-                    writePacket(PacketSnapshots.PACKET_PLUGIN_MESSAGE);
+                    writeOptionalPacket(PacketSnapshots.PACKET_PLUGIN_MESSAGE);
             }
 
             if (PacketSnapshots.PACKET_BOSS_BAR != null && clientVersion.moreOrEqual(Version.V1_9))
-                writePacket(PacketSnapshots.PACKET_BOSS_BAR);
+                writeOptionalPacket(PacketSnapshots.PACKET_BOSS_BAR);
 
             if (PacketSnapshots.PACKET_JOIN_MESSAGE != null)
-                writePacket(PacketSnapshots.PACKET_JOIN_MESSAGE);
+                writeOptionalPacket(PacketSnapshots.PACKET_JOIN_MESSAGE);
 
-            if (PacketSnapshots.PACKET_TITLE_TITLE != null && clientVersion.moreOrEqual(Version.V1_8))
+            if (PacketSnapshots.PACKET_TITLE_TITLE != null && clientVersion.moreOrEqual(Version.V1_8)
+                    && checkWritable())
                 writeTitle();
 
             if (PacketSnapshots.PACKET_HEADER_AND_FOOTER != null && clientVersion.moreOrEqual(Version.V1_8))
-                writePacket(PacketSnapshots.PACKET_HEADER_AND_FOOTER);
+                writeOptionalPacket(PacketSnapshots.PACKET_HEADER_AND_FOOTER);
 
             if (clientVersion.moreOrEqual(Version.V1_20_3)) {
                 writePacket(PacketSnapshots.PACKET_START_WAITING_CHUNKS);
@@ -185,6 +286,11 @@ public class ClientConnection extends ChannelInboundHandlerAdapter {
             }
 
             sendKeepAlive();
+            // Keep alive is skipped when write buffer is full, so packets above must be flushed anyway
+            channel.flush();
+            stats.onJoined(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - createdAt));
+            markJoinPhase(JoinPhase.SPAWN);
+            server.getKeepAliveScheduler().register(this);
         };
 
         if (clientVersion.lessOrEqual(Version.V1_7_6)) {
@@ -195,22 +301,80 @@ public class ClientConnection extends ChannelInboundHandlerAdapter {
     }
 
     public void onLoginAcknowledgedReceived() {
+        markJoinPhase(JoinPhase.LOGIN_ACKNOWLEDGE);
         updateState(State.CONFIGURATION);
 
         if (PacketSnapshots.PACKET_PLUGIN_MESSAGE != null)
             writePacket(PacketSnapshots.PACKET_PLUGIN_MESSAGE);
 
         if (clientVersion.moreOrEqual(Version.V1_20_5)) {
-            for (PacketSnapshot packet : PacketSnapshots.PACKETS_REGISTRY_DATA) {
-                writePacket(packet);
-            }
+            registryData = PacketSnapshots.PACKETS_REGISTRY_DATA;
         } else {
-            writePacket(PacketSnapshots.PACKET_REGISTRY_DATA);
+            registryData = Collections.singletonList(PacketSnapshots.PACKET_REGISTRY_DATA);
         }
 
+        registryDataIndex = 0;
+        writeRegistryData();
+    }
+
+    /**
+     * Write the next chunk of registry data. Chunk ends when write buffer is full or after
+     * a few packets, then the rest is written by a new task, so other connections of the loop
+     * are served in between. After full write buffer it continues when the buffer drains
+     */
+    private void writeRegistryData() {
+        if (registryData == null || !isConnected())
+            return;
+
+        int written = 0;
+
+        while (registryDataIndex < registryData.size() && channel.isWritable()
+                && written < REGISTRY_DATA_CHUNK) {
+            writePacket(registryData.get(registryDataIndex++));
+            written++;
+        }
+
+        if (registryDataIndex < registryData.size()) {
+            channel.flush();
+
+            if (channel.isWritable())
+                channel.eventLoop().execute(this::writeRegistryData);
+
+            return;
+        }
+
+        registryData = null;
         sendPacket(PacketSnapshots.PACKET_FINISH_CONFIGURATION);
     }
 
+    @Override
+    public void channelWritabilityChanged(@NotNull ChannelHandlerContext ctx) throws Exception {
+        if (registryData != null && ctx.channel().isWritable())
+            writeRegistryData();
+
+        super.channelWritabilityChanged(ctx);
+    }
+
+    /**
+     * Disconnect player in login state with pre-encoded packet
+     * @param reason Fixed disconnect reason
+     */
+    public void disconnectLogin(DisconnectReason reason) {
+        if (isConnected() && state == State.LOGIN) {
+            reason.increment();
+            LimboEvents.loginRejected(address, reason, clientVersion);
+
+            // Snapshots have no encoding for unknown protocol
+            if (clientVersion == Version.UNDEFINED) {
+                PacketDisconnect disconnect = new PacketDisconnect();
+                disconnect.setReason(reason.getMessage());
+                sendPacketAndClose(disconnect);
+            } else {
+                sendPacketAndClose(PacketSnapshots.PACKETS_DISCONNECT.get(reason));
+            }
+        }
+    }
+
     public void disconnectLogin(String reason) {
         if (isConnected() && state == State.LOGIN) {
             PacketDisconnect disconnect = new PacketDisconnect();
@@ -232,13 +396,119 @@ public class ClientConnection extends ChannelInboundHandlerAdapter {
     }
 
     public void sendKeepAlive() {
-        if (state.equals(State.PLAY)) {
-            PacketKeepAlive keepAlive = new PacketKeepAlive();
-            keepAlive.setId(ThreadLocalRandom.current().nextLong());
-            sendPacket(keepAlive);
+        if (state == State.PLAY && isConnected() && checkWritable()) {
+            keepAliveId = server.getKeepAliveScheduler().nextId();
+            keepAliveSentAt = System.nanoTime();
+            keepAlivePending = server.getKeepAliveScheduler().write(this, keepAliveId);
         }
     }
 
+    /**
+     * Called by keep alive scheduler once per interval from channel's event loop
+     */
+    void onKeepAliveTick() {
+        // First tick of a random slot comes less than interval after keep alive sent on spawn
+        if (!keepAliveTicked) {
+            keepAliveTicked = true;
+
+            if (keepAlivePending)
+                return;
+        }
+
+        if (!keepAlivePending) {
+            sendKeepAlive();
+            return;
+        }
+
+        if (++missedKeepAlives >= server.getKeepAliveScheduler().getMaxMissed()) {
+            Log.debug("%s didn't respond to %d keep alives", getUsername(), missedKeepAlives);
+            channel.close();
+            return;
+        }
+
+        // Client may have missed previous one, so repeat the same id
+        if (checkWritable())
+            server.getKeepAliveScheduler().write(this, keepAliveId);
+    }
+
+    public void onKeepAliveReceived(long id) {
+        if (keepAlivePending && id == keepAliveId) {
+            keepAlivePending = false;
+            missedKeepAlives = 0;
+
+            // Measured from the first sending of this id, so repeated ones don't understate latency
+            long rtt = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - keepAliveSentAt);
+            lastRtt = rtt;
+            smoothedRtt = smoothedRtt < 0 ? rtt : (smoothedRtt * 7 + rtt) / 8;
+            server.getKeepAliveScheduler().getRttHistogram().record(rtt);
+
+            if (!joinRecorded) {
+                joinRecorded = true;
+                markJoinPhase(JoinPhase.FIRST_KEEP_ALIVE);
+                stats.getJoinTimings().addRecent(new JoinTimings.Join(getUsername(), clientVersion, joinPhases.clone()));
+            }
+        }
+    }
+
+    /**
+     * Record duration of join phase which ends now
+     * @param phase Finished phase
+     */
+    private void markJoinPhase(JoinPhase phase) {
+        long now = System.nanoTime();
+        long micros = TimeUnit.NANOSECONDS.toMicros(now - lastJoinMark);
+        lastJoinMark = now;
+        joinPhases[phase.ordinal()] = micros;
+        stats.getJoinTimings().record(phase, clientVersion, micros);
+    }
+
+    /**
+     * @return Round trip time of the last answered keep alive in microseconds, or -1 if not measured yet
+     */
+    public long getLastRtt() {
+        return lastRtt;
+    }
+
+    /**
+     * @return Exponentially smoothed round trip time in microseconds, or -1 if not measured yet
+     */
+    public long getSmoothedRtt() {
+        return smoothedRtt;
+    }
+
+    /**
+     * @param frame Encoded packet with length prefix
+     * @param packetId Packet id, for traffic counters
+     * @param packetSize Packet size without length prefix
+     */
+    void writeFrame(ByteBuf frame, int packetId, int packetSize) {
+        if (frameEncoderContext == null) {
+            frameEncoderContext = channel.pipeline().context("frame_encoder");
+
+            if (frameEncoderContext == null) {
+                frame.release();
+                return;
+            }
+        }
+        // Frame already has length prefix, so write it to handlers before the frame encoder
+        stats.onPacketOut(frame.readableBytes());
+        stats.getPacketCounters().onSent(state, packetId, packetSize);
+        frameEncoderContext.writeAndFlush(frame, channel.voidPromise());
+    }
+
+    int getKeepAliveSlot() {
+        return keepAliveSlot;
+    }
+
+    int getKeepAliveIndex() {
+        return keepAliveIndex;
+    }
+
+    void setKeepAliveSlot(int slot, int index) {
+        this.keepAliveSlot = slot;
+        this.keepAliveIndex = index;
+    }
+
     public void sendPacket(Object packet) {
         if (isConnected())
             channel.writeAndFlush(packet, channel.voidPromise());
@@ -254,14 +524,40 @@ public class ClientConnection extends ChannelInboundHandlerAdapter {
             channel.write(packet, channel.voidPromise());
     }
 
+    /**
+     * Write packet which client can live without. It's skipped when client
+     * doesn't read data fast enough and its write buffer is full
+     * @param packet Packet to write
+     */
+    public void writeOptionalPacket(Object packet) {
+        if (isConnected() && checkWritable())
+            channel.write(packet, channel.voidPromise());
+    }
+
+    private boolean checkWritable() {
+        if (channel.isWritable())
+            return true;
+
+        server.getConnectionStats().incrementSkippedWrites();
+        return false;
+    }
+
     public boolean isConnected() {
         return channel.isActive();
     }
 
     public void updateState(State state) {
+        State from = this.state != null ? this.state : State.HANDSHAKING;
+        stats.onStateChanged(from, state);
+        LimboEvents.stateChanged(address, from, state, clientVersion);
+
+        if (state == State.LOGIN && this.state == null)
+            markJoinPhase(JoinPhase.HANDSHAKE);
+
         this.state = state;
         decoder.updateState(state);
         encoder.updateState(state);
+        deadlines.updateState(state);
     }
 
     public void updateEncoderState(State state) {
@@ -275,7 +571,13 @@ public class ClientConnection extends ChannelInboundHandlerAdapter {
     }
 
     public void setAddress(String host) {
-        this.address = new InetSocketAddress(host, ((InetSocketAddress) this.address).getPort());
+        // Peer address is not an inet address when client connected through unix socket
+        int port = this.address instanceof InetSocketAddress ? ((InetSocketAddress) this.address).getPort() : 0;
+        this.address = new InetSocketAddress(host, port);
+    }
+
+    public void setAddress(SocketAddress address) {
+        this.address = address;
     }
 
     boolean checkBungeeGuardHandshake(String handshake) {
@@ -306,7 +608,7 @@ public class ClientConnection extends ChannelInboundHandlerAdapter {
             }
         }
 
-        if (!server.getConfig().getInfoForwarding().hasToken(token))
+        if (!getInfoForwarding().hasToken(token))
             return false;
 
         setAddress(socketAddressHostname);
@@ -317,6 +619,36 @@ public class ClientConnection extends ChannelInboundHandlerAdapter {
         return true;
     }
 
+    /**
+     * Reserve player slot. It will be released when connection is closed
+     * @return false if there are no free slots
+     */
+    boolean reserveSlot() {
+        if (admissionStripe == -1)
+            admissionStripe = server.getAdmission().tryReserve();
+
+        return admissionStripe != -1;
+    }
+
+    /**
+     * Check per IP rate of status requests
+     * @return false if address sends status requests too often
+     */
+    boolean acquireStatusLimit() {
+        IpConnectionLimiter limiter = server.getStatusLimiter();
+
+        if (limiter == null || !(address instanceof InetSocketAddress))
+            return true;
+
+        InetAddress inetAddress = ((InetSocketAddress) address).getAddress();
+
+        if (!limiter.tryAcquire(inetAddress))
+            return false;
+
+        channel.closeFuture().addListener(future -> limiter.release(inetAddress));
+        return true;
+    }
+
     int getVelocityLoginMessageId() {
         return velocityLoginMessageId;
     }
@@ -332,7 +664,7 @@ public class ClientConnection extends ChannelInboundHandlerAdapter {
         buf.getBytes(buf.readerIndex(), data);
         try {
             Mac mac = Mac.getInstance("HmacSHA256");
-            mac.init(new SecretKeySpec(server.getConfig().getInfoForwarding().getSecretKey(), "HmacSHA256"));
+            mac.init(new SecretKeySpec(getInfoForwarding().getSecretKey(), "HmacSHA256"));
             byte[] mySignature = mac.doFinal(data);
             if (!MessageDigest.isEqual(signature, mySignature))
                 return false;
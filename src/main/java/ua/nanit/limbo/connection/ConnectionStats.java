@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.connection;
+
+import ua.nanit.limbo.protocol.registry.State;
+import ua.nanit.limbo.util.Histogram;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of connection lifecycle, traffic and errors shared by all connections
+ */
+public final class ConnectionStats {
+
+    private final LongAdder readTimeouts = new LongAdder();
+    private final LongAdder[] stateTimeouts = new LongAdder[State.values().length];
+    private final LongAdder unwritableEvictions = new LongAdder();
+    private final LongAdder skippedWrites = new LongAdder();
+
+    private final LongAdder[] activeByState = new LongAdder[State.values().length];
+    private final LongAdder opened = new LongAdder();
+    private final LongAdder joins = new LongAdder();
+    private final Histogram joinTime = new Histogram();
+    private final JoinTimings joinTimings = new JoinTimings();
+    private final PacketCounters packetCounters = new PacketCounters();
+
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder packetsIn = new LongAdder();
+    private final LongAdder packetsOut = new LongAdder();
+    private final LongAdder decodeErrors = new LongAdder();
+    private final LongAdder packetSizeKicks = new LongAdder();
+    private final LongAdder packetRateKicks = new LongAdder();
+
+    public ConnectionStats() {
+        for (int i = 0; i < stateTimeouts.length; i++) {
+            stateTimeouts[i] = new LongAdder();
+            activeByState[i] = new LongAdder();
+        }
+    }
+
+    public void onOpened() {
+        opened.increment();
+        activeByState[State.HANDSHAKING.ordinal()].increment();
+    }
+
+    public void onStateChanged(State from, State to) {
+        activeByState[from.ordinal()].decrement();
+        activeByState[to.ordinal()].increment();
+    }
+
+    public void onClosed(State state) {
+        activeByState[state.ordinal()].decrement();
+    }
+
+    /**
+     * @param micros Time from connection to spawn in the world
+     */
+    public void onJoined(long micros) {
+        joins.increment();
+        joinTime.record(micros);
+    }
+
+    public void onPacketIn(int bytes) {
+        packetsIn.increment();
+        bytesIn.add(bytes);
+    }
+
+    public void onPacketOut(int bytes) {
+        packetsOut.increment();
+        bytesOut.add(bytes);
+    }
+
+    public void incrementDecodeErrors() {
+        decodeErrors.increment();
+    }
+
+    public void incrementPacketSizeKicks() {
+        packetSizeKicks.increment();
+    }
+
+    public void incrementPacketRateKicks() {
+        packetRateKicks.increment();
+    }
+
+    public void incrementReadTimeouts() {
+        readTimeouts.increment();
+    }
+
+    public void incrementStateTimeouts(State state) {
+        stateTimeouts[state.ordinal()].increment();
+    }
+
+    public void incrementUnwritableEvictions() {
+        unwritableEvictions.increment();
+    }
+
+    public void incrementSkippedWrites() {
+        skippedWrites.increment();
+    }
+
+    public long getReadTimeouts() {
+        return readTimeouts.sum();
+    }
+
+    public long getStateTimeouts(State state) {
+        return stateTimeouts[state.ordinal()].sum();
+    }
+
+    /**
+     * @return Amount of connections closed because they didn't read sent data in time
+     */
+    public long getUnwritableEvictions() {
+        return unwritableEvictions.sum();
+    }
+
+    /**
+     * @return Amount of optional packets not sent because client's write buffer was full
+     */
+    public long getSkippedWrites() {
+        return skippedWrites.sum();
+    }
+
+    public long getActive(State state) {
+        return activeByState[state.ordinal()].sum();
+    }
+
+    public long getOpened() {
+        return opened.sum();
+    }
+
+    public long getJoins() {
+        return joins.sum();
+    }
+
+    /**
+     * @return Histogram of time from connection to spawn in the world, in microseconds
+     */
+    public Histogram getJoinTime() {
+        return joinTime;
+    }
+
+    public JoinTimings getJoinTimings() {
+        return joinTimings;
+    }
+
+    public PacketCounters getPacketCounters() {
+        return packetCounters;
+    }
+
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    public long getPacketsIn() {
+        return packetsIn.sum();
+    }
+
+    public long getPacketsOut() {
+        return packetsOut.sum();
+    }
+
+    public long getDecodeErrors() {
+        return decodeErrors.sum();
+    }
+
+    public long getPacketSizeKicks() {
+        return packetSizeKicks.sum();
+    }
+
+    public long getPacketRateKicks() {
+        return packetRateKicks.sum();
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.connection;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed reasons of login rejection. Disconnect packets for them are
+ * encoded once in {@link PacketSnapshots}, so rejections don't build JSON
+ */
+public enum DisconnectReason {
+
+    TOO_MANY_PLAYERS("Too many players connected"),
+    UNSUPPORTED_VERSION("Unsupported client version"),
+    FORWARDING_REQUIRED("You've enabled player info forwarding. You need to connect with proxy"),
+    INVALID_BUNGEEGUARD("Invalid BungeeGuard token or handshake format"),
+    VELOCITY_REQUIRED("You need to connect with Velocity"),
+    INVALID_FORWARDING("Can't verify forwarded player info"),
+    SERVER_BUSY("Server is busy, please try again later");
+
+    private final String message;
+    private final LongAdder counter = new LongAdder();
+
+    DisconnectReason(String message) {
+        this.message = message;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * @return Amount of connections disconnected with this reason
+     */
+    public long getCount() {
+        return counter.sum();
+    }
+
+    void increment() {
+        counter.increment();
+    }
+}
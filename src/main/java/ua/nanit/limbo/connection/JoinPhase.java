@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.connection;
+
+/**
+ * Phases of player join. Each phase lasts from the end of the previous one
+ */
+public enum JoinPhase {
+
+    /** From connection to handshake with login intent */
+    HANDSHAKE,
+    /** Login start, forwarding checks, Velocity plugin round trip and login queue */
+    LOGIN,
+    /** From login success to its acknowledgement, 1.20.2+ */
+    LOGIN_ACKNOWLEDGE,
+    /** Registry data and finish configuration round trip, 1.20.2+ */
+    CONFIGURATION,
+    /** Writing of join game and other world packets */
+    SPAWN,
+    /** From spawn to the first keep alive answered by client */
+    FIRST_KEEP_ALIVE
+
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.connection;
+
+import ua.nanit.limbo.protocol.registry.Version;
+import ua.nanit.limbo.util.Histogram;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Latency histograms of join phases for each client version
+ * and the ring of recently finished joins
+ */
+public final class JoinTimings {
+
+    private static final int RECENT_JOINS = 256;
+    private static final JoinPhase[] PHASES = JoinPhase.values();
+    private static final Version[] VERSIONS = Version.values();
+
+    // Histograms are created on first use, since most versions never connect
+    private final AtomicReferenceArray<Histogram> histograms =
+            new AtomicReferenceArray<>(PHASES.length * VERSIONS.length);
+    private final AtomicReferenceArray<Join> recent = new AtomicReferenceArray<>(RECENT_JOINS);
+    private final AtomicLong recentCursor = new AtomicLong();
+
+    /**
+     * @param phase Finished phase
+     * @param version Client version
+     * @param micros Phase duration in microseconds
+     */
+    public void record(JoinPhase phase, Version version, long micros) {
+        int index = phase.ordinal() * VERSIONS.length + version.ordinal();
+        Histogram histogram = histograms.get(index);
+
+        if (histogram == null) {
+            histograms.compareAndSet(index, null, new Histogram());
+            histogram = histograms.get(index);
+        }
+
+        histogram.record(micros);
+    }
+
+    /**
+     * @param phase Join phase
+     * @param version Client version
+     * @return Histogram of phase durations in microseconds, or null if nothing was recorded
+     */
+    public Histogram getHistogram(JoinPhase phase, Version version) {
+        return histograms.get(phase.ordinal() * VERSIONS.length + version.ordinal());
+    }
+
+    public void addRecent(Join join) {
+        int index = (int) (recentCursor.getAndIncrement() % RECENT_JOINS);
+        recent.set(index, join);
+    }
+
+    public List<Join> getRecent() {
+        List<Join> result = new ArrayList<>(RECENT_JOINS);
+
+        for (int i = 0; i < RECENT_JOINS; i++) {
+            Join join = recent.get(i);
+
+            if (join != null)
+                result.add(join);
+        }
+
+        return result;
+    }
+
+    public static final class Join {
+
+        private final String username;
+        private final Version version;
+        private final long[] phases;
+        private final long total;
+
+        /**
+         * @param username Player name
+         * @param version Client version
+         * @param phases Durations of phases in microseconds, indexed by phase ordinal
+         */
+        public Join(String username, Version version, long[] phases) {
+            this.username = username;
+            this.version = version;
+            this.phases = phases;
+
+            long total = 0;
+            for (long phase : phases) {
+                total += phase;
+            }
+            this.total = total;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public Version getVersion() {
+            return version;
+        }
+
+        public long getPhase(JoinPhase phase) {
+            return phases[phase.ordinal()];
+        }
+
+        /**
+         * @return Time from connection to the first keep alive answer in microseconds
+         */
+        public long getTotal() {
+            return total;
+        }
+    }
+}
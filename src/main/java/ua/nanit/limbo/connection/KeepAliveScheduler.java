@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.connection;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.EventLoop;
+import io.netty.util.concurrent.ScheduledFuture;
+import ua.nanit.limbo.protocol.ByteMessage;
+import ua.nanit.limbo.protocol.packets.play.PacketKeepAlive;
+import ua.nanit.limbo.protocol.registry.State;
+import ua.nanit.limbo.protocol.registry.Version;
+import ua.nanit.limbo.util.Histogram;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends keep alive packets to players in PLAY state.
+ * Each event loop has its own schedule with players spread over slots of the interval,
+ * so keep alives are written by the loop which owns the channel, without task hops,
+ * and evenly over time instead of one burst every interval.
+ * Packets are written as pre-encoded frames where only the id bytes are replaced
+ */
+public final class KeepAliveScheduler {
+
+    private static final long TICK_MILLIS = 250;
+
+    // Ids in this range are always encoded as 4-byte VarInt, so frame length is fixed for all versions
+    private static final int MIN_ID = 1 << 21;
+    private static final int MAX_ID = 1 << 28;
+
+    private final long intervalMillis;
+    private final int maxMissed;
+    private final int slotsCount;
+    private final Map<Version, Frame> frames = new EnumMap<>(Version.class);
+    private final Map<EventLoop, LoopSchedule> schedules = new ConcurrentHashMap<>();
+    private final Histogram rttHistogram = new Histogram();
+
+    public KeepAliveScheduler(long intervalMillis, int maxMissed) {
+        this.intervalMillis = intervalMillis;
+        this.maxMissed = maxMissed;
+        this.slotsCount = (int) Math.max(1, intervalMillis / TICK_MILLIS);
+
+        for (Version version : Version.values()) {
+            if (version.equals(Version.UNDEFINED)) continue;
+
+            Frame frame = Frame.create(version);
+
+            if (frame != null)
+                frames.put(version, frame);
+        }
+    }
+
+    public int getMaxMissed() {
+        return maxMissed;
+    }
+
+    /**
+     * @return Histogram of keep alive round trip times of all players in microseconds
+     */
+    public Histogram getRttHistogram() {
+        return rttHistogram;
+    }
+
+    /**
+     * Add player to the schedule of its event loop. Must be called from channel's event loop
+     * @param connection Player connection in PLAY state
+     */
+    void register(ClientConnection connection) {
+        EventLoop loop = connection.getChannel().eventLoop();
+        LoopSchedule schedule = schedules.computeIfAbsent(loop, LoopSchedule::new);
+        schedule.add(connection);
+    }
+
+    /**
+     * Remove player from the schedule. Must be called from channel's event loop
+     * @param connection Player connection
+     */
+    void unregister(ClientConnection connection) {
+        EventLoop loop = connection.getChannel().eventLoop();
+        LoopSchedule schedule = schedules.get(loop);
+
+        if (schedule != null && schedule.remove(connection) && schedule.size == 0) {
+            // Loop without players doesn't need ticks, it gets new schedule on the next join
+            schedules.remove(loop);
+            schedule.task.cancel(false);
+        }
+    }
+
+    /**
+     * Write keep alive frame for client version
+     * @param connection Player connection
+     * @param id Keep alive id
+     * @return false if frame for client version is not available
+     */
+    boolean write(ClientConnection connection, long id) {
+        Frame frame = frames.get(connection.getClientVersion());
+
+        if (frame == null)
+            return false;
+
+        ByteBuf buf = connection.getChannel().alloc().buffer(frame.template.length);
+        frame.write(buf, id);
+        connection.writeFrame(buf, frame.packetId, frame.packetSize);
+        return true;
+    }
+
+    long nextId() {
+        return ThreadLocalRandom.current().nextInt(MIN_ID, MAX_ID);
+    }
+
+    public void stop() {
+        for (LoopSchedule schedule : schedules.values()) {
+            schedule.task.cancel(false);
+        }
+        schedules.clear();
+    }
+
+    private final class LoopSchedule {
+
+        private final List<List<ClientConnection>> slots;
+        private final ScheduledFuture<?> task;
+        private int currentSlot;
+        private int size;
+
+        private LoopSchedule(EventLoop loop) {
+            slots = new ArrayList<>(slotsCount);
+
+            for (int i = 0; i < slotsCount; i++) {
+                slots.add(new ArrayList<>());
+            }
+
+            task = loop.scheduleAtFixedRate(this::tick, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        private void add(ClientConnection connection) {
+            // Random slot spreads keep alives of players joined at the same time over the interval
+            int slot = ThreadLocalRandom.current().nextInt(slotsCount);
+            List<ClientConnection> list = slots.get(slot);
+            connection.setKeepAliveSlot(slot, list.size());
+            list.add(connection);
+            size++;
+        }
+
+        /**
+         * @return true if connection was in this schedule
+         */
+        private boolean remove(ClientConnection connection) {
+            int slot = connection.getKeepAliveSlot();
+            int index = connection.getKeepAliveIndex();
+
+            if (slot < 0 || slot >= slots.size())
+                return false;
+
+            List<ClientConnection> list = slots.get(slot);
+
+            if (index >= list.size() || list.get(index) != connection)
+                return false;
+
+            // Swap with the last one to remove in constant time
+            ClientConnection last = list.remove(list.size() - 1);
+
+            if (last != connection) {
+                list.set(index, last);
+                last.setKeepAliveSlot(slot, index);
+            }
+
+            connection.setKeepAliveSlot(-1, -1);
+            size--;
+            return true;
+        }
+
+        private void tick() {
+            List<ClientConnection> list = slots.get(currentSlot);
+
+            for (int i = list.size() - 1; i >= 0; i--) {
+                list.get(i).onKeepAliveTick();
+            }
+
+            currentSlot = (currentSlot + 1) % slots.size();
+        }
+    }
+
+    private static final class Frame {
+
+        private static final int ID_LONG = 0;
+        private static final int ID_INT = 1;
+        private static final int ID_VAR_INT = 2;
+
+        private final byte[] template;
+        private final int idOffset;
+        private final int idType;
+        private final int packetId;
+        private final int packetSize;
+
+        private Frame(byte[] template, int idOffset, int idType, int packetId, int packetSize) {
+            this.template = template;
+            this.idOffset = idOffset;
+            this.idType = idType;
+            this.packetId = packetId;
+            this.packetSize = packetSize;
+        }
+
+        private void write(ByteBuf buf, long id) {
+            int start = buf.writerIndex();
+            buf.writeBytes(template);
+
+            switch (idType) {
+                case ID_LONG:
+                    buf.setLong(start + idOffset, id);
+                    break;
+                case ID_INT:
+                    buf.setInt(start + idOffset, (int) id);
+                    break;
+                default:
+                    int value = (int) id;
+                    int varInt = (value & 0x7F | 0x80) << 24 | (((value >>> 7) & 0x7F | 0x80) << 16)
+                            | ((value >>> 14) & 0x7F | 0x80) << 8 | (value >>> 21);
+                    buf.setInt(start + idOffset, varInt);
+            }
+        }
+
+        private static Frame create(Version version) {
+            int packetId = State.PLAY.clientBound.getRegistry(version).getPacketId(PacketKeepAlive.class);
+
+            if (packetId == -1)
+                return null;
+
+            PacketKeepAlive packet = new PacketKeepAlive();
+            packet.setId(MIN_ID);
+
+            ByteMessage body = ByteMessage.create();
+            body.writeVarInt(packetId);
+            int bodyIdOffset = body.writerIndex();
+            packet.encode(body, version);
+
+            ByteMessage frame = ByteMessage.create();
+            frame.writeVarInt(body.readableBytes());
+            int idOffset = frame.writerIndex() + bodyIdOffset;
+            frame.writeBytes(body);
+
+            byte[] template = frame.toByteArray();
+            int packetSize = body.writerIndex();
+            body.release();
+            frame.release();
+
+            int idType;
+
+            if (version.moreOrEqual(Version.V1_12_2)) {
+                idType = ID_LONG;
+            } else if (version.moreOrEqual(Version.V1_8)) {
+                idType = ID_VAR_INT;
+            } else {
+                idType = ID_INT;
+            }
+
+            return new Frame(template, idOffset, idType, packetId, packetSize);
+        }
+    }
+}
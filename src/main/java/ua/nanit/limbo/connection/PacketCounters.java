@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.connection;
+
+import ua.nanit.limbo.protocol.registry.State;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Packets and bytes counted by direction, protocol state and packet id.
+ * Counters are preallocated for every id below {@link #MAX_ID}, larger ids share the last slot
+ */
+public final class PacketCounters {
+
+    public static final int MAX_ID = 128;
+    /** Slot of ids which don't fit in the table */
+    public static final int OTHER_SLOT = MAX_ID;
+
+    private static final int SLOTS = MAX_ID + 1;
+    private static final int STATES = State.values().length;
+
+    private final LongAdder[] packets = new LongAdder[Direction.values().length * STATES * SLOTS];
+    private final LongAdder[] bytes = new LongAdder[packets.length];
+    // Received packets which are not registered for client version and state
+    private final LongAdder[] unknown = new LongAdder[STATES * SLOTS];
+
+    public PacketCounters() {
+        for (int i = 0; i < packets.length; i++) {
+            packets[i] = new LongAdder();
+            bytes[i] = new LongAdder();
+        }
+
+        for (int i = 0; i < unknown.length; i++) {
+            unknown[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @param state Decoder state
+     * @param packetId Packet id
+     * @param size Packet size without length prefix
+     * @param known Whether packet is registered for this state
+     */
+    public void onReceived(State state, int packetId, int size, boolean known) {
+        int slot = slot(state, packetId);
+        int index = index(Direction.IN, slot);
+        packets[index].increment();
+        bytes[index].add(size);
+
+        if (!known)
+            unknown[slot].increment();
+    }
+
+    /**
+     * @param state Encoder state
+     * @param packetId Packet id
+     * @param size Packet size without length prefix
+     */
+    public void onSent(State state, int packetId, int size) {
+        int index = index(Direction.OUT, slot(state, packetId));
+        packets[index].increment();
+        bytes[index].add(size);
+    }
+
+    /**
+     * @param slot Packet id or {@link #OTHER_SLOT}
+     */
+    public long getPackets(Direction direction, State state, int slot) {
+        return packets[index(direction, state.ordinal() * SLOTS + slot)].sum();
+    }
+
+    /**
+     * @param slot Packet id or {@link #OTHER_SLOT}
+     */
+    public long getBytes(Direction direction, State state, int slot) {
+        return bytes[index(direction, state.ordinal() * SLOTS + slot)].sum();
+    }
+
+    /**
+     * @param slot Packet id or {@link #OTHER_SLOT}
+     * @return Count of received packets which server doesn't know
+     */
+    public long getUnknown(State state, int slot) {
+        return unknown[state.ordinal() * SLOTS + slot].sum();
+    }
+
+    private static int slot(State state, int packetId) {
+        return state.ordinal() * SLOTS + (packetId >= 0 && packetId < MAX_ID ? packetId : OTHER_SLOT);
+    }
+
+    private static int index(Direction direction, int slot) {
+        return direction.ordinal() * STATES * SLOTS + slot;
+    }
+
+    public enum Direction {
+        IN, OUT
+    }
+}
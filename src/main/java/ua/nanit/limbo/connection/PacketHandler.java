@@ -25,9 +25,10 @@ import ua.nanit.limbo.protocol.packets.login.PacketLoginAcknowledged;
 import ua.nanit.limbo.protocol.packets.login.PacketLoginPluginRequest;
 import ua.nanit.limbo.protocol.packets.login.PacketLoginPluginResponse;
 import ua.nanit.limbo.protocol.packets.login.PacketLoginStart;
+import ua.nanit.limbo.protocol.packets.play.PacketKeepAlive;
 import ua.nanit.limbo.protocol.packets.status.PacketStatusPing;
 import ua.nanit.limbo.protocol.packets.status.PacketStatusRequest;
-import ua.nanit.limbo.protocol.packets.status.PacketStatusResponse;
+import ua.nanit.limbo.protocol.registry.State;
 import ua.nanit.limbo.server.LimboServer;
 import ua.nanit.limbo.server.Log;
 import ua.nanit.limbo.util.UuidUtil;
@@ -43,30 +44,41 @@ public class PacketHandler {
     }
 
     public void handle(ClientConnection conn, PacketHandshake packet) {
+        if (packet.getNextState() == State.STATUS && server.getMemoryGuard() != null
+                && server.getMemoryGuard().shouldShedStatus()) {
+            conn.getChannel().close();
+            return;
+        }
+
+        if (packet.getNextState() == State.STATUS && !conn.acquireStatusLimit()) {
+            conn.getChannel().close();
+            return;
+        }
+
         conn.updateVersion(packet.getVersion());
         conn.updateState(packet.getNextState());
 
         Log.debug("Pinged from %s [%s]", conn.getAddress(),
                 conn.getClientVersion().toString());
 
-        if (server.getConfig().getInfoForwarding().isLegacy()) {
+        if (conn.getInfoForwarding().isLegacy()) {
             String[] split = packet.getHost().split("\00");
 
             if (split.length == 3 || split.length == 4) {
                 conn.setAddress(split[1]);
                 conn.getGameProfile().setUuid(UuidUtil.fromString(split[2]));
             } else {
-                conn.disconnectLogin("You've enabled player info forwarding. You need to connect with proxy");
+                conn.disconnectLogin(DisconnectReason.FORWARDING_REQUIRED);
             }
-        } else if (server.getConfig().getInfoForwarding().isBungeeGuard()) {
+        } else if (conn.getInfoForwarding().isBungeeGuard()) {
             if (!conn.checkBungeeGuardHandshake(packet.getHost())) {
-                conn.disconnectLogin("Invalid BungeeGuard token or handshake format");
+                conn.disconnectLogin(DisconnectReason.INVALID_BUNGEEGUARD);
             }
         }
     }
 
     public void handle(ClientConnection conn, PacketStatusRequest packet) {
-        conn.sendPacket(new PacketStatusResponse(server));
+        conn.sendPacket(server.getStatusCache().get(conn));
     }
 
     public void handle(ClientConnection conn, PacketStatusPing packet) {
@@ -74,18 +86,22 @@ public class PacketHandler {
     }
 
     public void handle(ClientConnection conn, PacketLoginStart packet) {
-        if (server.getConfig().getMaxPlayers() > 0 &&
-                server.getConnections().getCount() >= server.getConfig().getMaxPlayers()) {
-            conn.disconnectLogin("Too many players connected");
+        if (server.getMemoryGuard() != null && server.getMemoryGuard().shouldPauseLogins()) {
+            conn.disconnectLogin(DisconnectReason.SERVER_BUSY);
+            return;
+        }
+
+        if (!conn.reserveSlot()) {
+            conn.disconnectLogin(DisconnectReason.TOO_MANY_PLAYERS);
             return;
         }
 
         if (!conn.getClientVersion().isSupported()) {
-            conn.disconnectLogin("Unsupported client version");
+            conn.disconnectLogin(DisconnectReason.UNSUPPORTED_VERSION);
             return;
         }
 
-        if (server.getConfig().getInfoForwarding().isModern()) {
+        if (conn.getInfoForwarding().isModern()) {
             int loginId = ThreadLocalRandom.current().nextInt(0, Integer.MAX_VALUE);
             PacketLoginPluginRequest request = new PacketLoginPluginRequest();
 
@@ -98,25 +114,25 @@ public class PacketHandler {
             return;
         }
 
-        if (!server.getConfig().getInfoForwarding().isModern()) {
+        if (!conn.getInfoForwarding().isModern()) {
             conn.getGameProfile().setUsername(packet.getUsername());
             conn.getGameProfile().setUuid(UuidUtil.getOfflineModeUuid(packet.getUsername()));
         }
 
-        conn.fireLoginSuccess();
+        completeLogin(conn);
     }
 
     public void handle(ClientConnection conn, PacketLoginPluginResponse packet) {
-        if (server.getConfig().getInfoForwarding().isModern()
+        if (conn.getInfoForwarding().isModern()
                 && packet.getMessageId() == conn.getVelocityLoginMessageId()) {
 
             if (!packet.isSuccessful() || packet.getData() == null) {
-                conn.disconnectLogin("You need to connect with Velocity");
+                conn.disconnectLogin(DisconnectReason.VELOCITY_REQUIRED);
                 return;
             }
 
             if (!conn.checkVelocityKeyIntegrity(packet.getData())) {
-                conn.disconnectLogin("Can't verify forwarded player info");
+                conn.disconnectLogin(DisconnectReason.INVALID_FORWARDING);
                 return;
             }
 
@@ -125,6 +141,14 @@ public class PacketHandler {
             conn.getGameProfile().setUuid(packet.getData().readUuid());
             conn.getGameProfile().setUsername(packet.getData().readString());
 
+            completeLogin(conn);
+        }
+    }
+
+    private void completeLogin(ClientConnection conn) {
+        if (server.getLoginQueue() != null) {
+            server.getLoginQueue().admit(conn);
+        } else {
             conn.fireLoginSuccess();
         }
     }
@@ -137,4 +161,8 @@ public class PacketHandler {
         conn.spawnPlayer();
     }
 
+    public void handle(ClientConnection conn, PacketKeepAlive packet) {
+        conn.onKeepAliveReceived(packet.getId());
+    }
+
 }
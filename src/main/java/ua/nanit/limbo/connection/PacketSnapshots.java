@@ -24,6 +24,7 @@ import ua.nanit.limbo.LimboConstants;
 import ua.nanit.limbo.protocol.PacketSnapshot;
 import ua.nanit.limbo.protocol.packets.configuration.PacketFinishConfiguration;
 import ua.nanit.limbo.protocol.packets.configuration.PacketRegistryData;
+import ua.nanit.limbo.protocol.packets.login.PacketDisconnect;
 import ua.nanit.limbo.protocol.packets.login.PacketLoginSuccess;
 import ua.nanit.limbo.protocol.packets.play.*;
 import ua.nanit.limbo.server.LimboServer;
@@ -34,7 +35,10 @@ import ua.nanit.limbo.world.Dimension;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.UUID;
 import java.util.concurrent.ThreadLocalRandom;
 
@@ -70,9 +74,41 @@ public final class PacketSnapshots {
     public static List<PacketSnapshot> PACKETS_EMPTY_CHUNKS;
     public static PacketSnapshot PACKET_START_WAITING_CHUNKS;
 
+    public static Map<DisconnectReason, PacketSnapshot> PACKETS_DISCONNECT;
+
     private PacketSnapshots() { }
 
+    /**
+     * @return All created snapshots, skipping disabled ones
+     */
+    public static List<PacketSnapshot> getAll() {
+        List<PacketSnapshot> all = new ArrayList<>();
+        Collections.addAll(all, PACKET_LOGIN_SUCCESS, PACKET_JOIN_GAME, PACKET_SPAWN_POSITION,
+                PACKET_PLUGIN_MESSAGE, PACKET_PLAYER_ABILITIES, PACKET_PLAYER_INFO, PACKET_DECLARE_COMMANDS,
+                PACKET_JOIN_MESSAGE, PACKET_BOSS_BAR, PACKET_HEADER_AND_FOOTER, PACKET_PLAYER_POS_AND_LOOK_LEGACY,
+                PACKET_PLAYER_POS_AND_LOOK, PACKET_TITLE_TITLE, PACKET_TITLE_SUBTITLE, PACKET_TITLE_TIMES,
+                PACKET_TITLE_LEGACY_TITLE, PACKET_TITLE_LEGACY_SUBTITLE, PACKET_TITLE_LEGACY_TIMES,
+                PACKET_REGISTRY_DATA, PACKET_FINISH_CONFIGURATION, PACKET_START_WAITING_CHUNKS);
+        all.removeIf(Objects::isNull);
+
+        if (PACKETS_REGISTRY_DATA != null)
+            all.addAll(PACKETS_REGISTRY_DATA);
+        if (PACKETS_EMPTY_CHUNKS != null)
+            all.addAll(PACKETS_EMPTY_CHUNKS);
+        if (PACKETS_DISCONNECT != null)
+            all.addAll(PACKETS_DISCONNECT.values());
+
+        return all;
+    }
+
     public static void initPackets(LimboServer server) {
+        initPackets(server, ThreadLocalRandom.current().nextInt());
+    }
+
+    /**
+     * @param teleportId Id of spawn teleport, fixed one makes position packet the same between starts
+     */
+    public static void initPackets(LimboServer server, int teleportId) {
         final String username = server.getConfig().getPingData().getVersion();
         final UUID uuid = UuidUtil.getOfflineModeUuid(username);
 
@@ -102,8 +138,6 @@ public final class PacketSnapshots {
         playerAbilities.setFlags(0x02);
         playerAbilities.setFieldOfView(0.1F);
 
-        int teleportId = ThreadLocalRandom.current().nextInt();
-
         PacketPlayerPositionAndLook positionAndLookLegacy
                 = new PacketPlayerPositionAndLook(0, 64, 0, 0, 0, teleportId);
 
@@ -253,5 +287,13 @@ public final class PacketSnapshots {
             }
         }
         PACKETS_EMPTY_CHUNKS = emptyChunks;
+
+        Map<DisconnectReason, PacketSnapshot> disconnects = new EnumMap<>(DisconnectReason.class);
+        for (DisconnectReason reason : DisconnectReason.values()) {
+            PacketDisconnect disconnect = new PacketDisconnect();
+            disconnect.setReason(reason.getMessage());
+            disconnects.put(reason, PacketSnapshot.of(disconnect));
+        }
+        PACKETS_DISCONNECT = disconnects;
     }
 }
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.connection;
+
+import ua.nanit.limbo.protocol.packets.status.PacketStatusResponse;
+import ua.nanit.limbo.protocol.registry.Version;
+import ua.nanit.limbo.server.LimboServer;
+import ua.nanit.limbo.server.data.PingData;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps encoded status response for each protocol number shown to clients.
+ * Response is encoded again only when online players count changes
+ */
+public final class StatusResponseCache {
+
+    private static final String TEMPLATE = "{ \"version\": { \"name\": \"%s\", \"protocol\": %d }, \"players\": { \"max\": %d, \"online\": %d, \"sample\": [] }, \"description\": %s%s }";
+
+    private final LimboServer server;
+    private final Map<Integer, PacketStatusResponse> responses = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public StatusResponseCache(LimboServer server) {
+        this.server = server;
+    }
+
+    public PacketStatusResponse get(ClientConnection connection) {
+        int protocol = getProtocol(connection);
+        int online = server.getConnections().getCount();
+        PacketStatusResponse response = responses.get(protocol);
+
+        if (response != null && response.getOnline() == online) {
+            hits.increment();
+            return response;
+        }
+
+        // Concurrent misses can encode the same response, but it's cheaper than locking
+        misses.increment();
+        response = new PacketStatusResponse(getResponseJson(protocol, online), online);
+        responses.put(protocol, response);
+        return response;
+    }
+
+    private int getProtocol(ClientConnection connection) {
+        int staticProtocol = server.getConfig().getPingData().getProtocol();
+
+        if (staticProtocol > 0)
+            return staticProtocol;
+
+        return connection.getInfoForwarding().isNone()
+                ? connection.getClientVersion().getProtocolNumber()
+                : Version.getMax().getProtocolNumber();
+    }
+
+    private String getResponseJson(int protocol, int online) {
+        PingData ping = server.getConfig().getPingData();
+        String favicon = ping.getFavicon() != null ? ", \"favicon\": \"" + ping.getFavicon() + "\"" : "";
+
+        return String.format(TEMPLATE, ping.getVersion(), protocol,
+                server.getConfig().getMaxPlayers(), online, ping.getDescription(), favicon);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.connection.pipeline;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import org.jetbrains.annotations.NotNull;
+import ua.nanit.limbo.server.IpConnectionLimiter;
+import ua.nanit.limbo.server.IpFilter;
+import ua.nanit.limbo.server.Log;
+import ua.nanit.limbo.server.MemoryGuard;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.function.Predicate;
+
+/**
+ * Handler of server channel which checks accepted connections before
+ * they are registered in worker event loop and get their own pipeline.
+ * Rejected connections are closed at once
+ */
+@ChannelHandler.Sharable
+public class AcceptFilterHandler extends ChannelInboundHandlerAdapter {
+
+    private final IpFilter ipFilter;
+    private final IpConnectionLimiter limiter;
+    private final MemoryGuard memoryGuard;
+    private final Predicate<InetAddress> trustedProxy;
+
+    /**
+     * @param ipFilter Blocklist and allowlist. Nullable
+     * @param limiter Per IP limiter. Nullable
+     * @param memoryGuard Memory guard which refuses all connections when memory runs out. Nullable
+     * @param trustedProxy Addresses of proxies which send real client address in PROXY header.
+     *                     Such connections are checked after the header is received
+     */
+    public AcceptFilterHandler(IpFilter ipFilter, IpConnectionLimiter limiter, MemoryGuard memoryGuard,
+                               Predicate<InetAddress> trustedProxy) {
+        this.ipFilter = ipFilter;
+        this.limiter = limiter;
+        this.memoryGuard = memoryGuard;
+        this.trustedProxy = trustedProxy;
+    }
+
+    @Override
+    public void channelRead(@NotNull ChannelHandlerContext ctx, @NotNull Object msg) throws Exception {
+        if (msg instanceof Channel) {
+            Channel child = (Channel) msg;
+
+            if (memoryGuard != null && memoryGuard.shouldRefuseAccepts()) {
+                child.unsafe().closeForcibly();
+                return;
+            }
+
+            if (child.remoteAddress() instanceof InetSocketAddress) {
+                InetAddress address = ((InetSocketAddress) child.remoteAddress()).getAddress();
+
+                if (!trustedProxy.test(address) && !accept(child, address)) {
+                    child.unsafe().closeForcibly();
+                    return;
+                }
+            }
+        }
+
+        super.channelRead(ctx, msg);
+    }
+
+    /**
+     * Check connection address. Allowed connection is registered
+     * in limiter and released when channel is closed
+     * @param channel Connection channel
+     * @param address Real address of connection
+     * @return true if connection is allowed
+     */
+    public boolean accept(Channel channel, InetAddress address) {
+        if (ipFilter != null) {
+            if (ipFilter.isAllowed(address))
+                return true;
+
+            if (ipFilter.isBlocked(address)) {
+                Log.debug("Rejected connection from %s: address is blocked", address.getHostAddress());
+                return false;
+            }
+        }
+
+        if (limiter != null) {
+            if (!limiter.tryAcquire(address)) {
+                Log.debug("Rejected connection from %s: too many connections", address.getHostAddress());
+                return false;
+            }
+
+            channel.closeFuture().addListener(future -> limiter.release(address));
+        }
+
+        return true;
+    }
+}
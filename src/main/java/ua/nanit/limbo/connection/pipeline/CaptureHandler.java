@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.connection.pipeline;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import org.jetbrains.annotations.NotNull;
+import ua.nanit.limbo.connection.ClientConnection;
+import ua.nanit.limbo.server.capture.TrafficCapture;
+
+/**
+ * Passes data read from socket to capture before it's split into frames,
+ * so replay keeps the original fragmentation and timing
+ */
+public class CaptureHandler extends ChannelInboundHandlerAdapter {
+
+    private final TrafficCapture capture;
+    private final ClientConnection connection;
+    private final long startMillis = System.currentTimeMillis();
+    private final long startNanos = System.nanoTime();
+    private TrafficCapture.Session session;
+
+    public CaptureHandler(TrafficCapture capture, ClientConnection connection) {
+        this.capture = capture;
+        this.connection = connection;
+    }
+
+    @Override
+    public void channelRead(@NotNull ChannelHandlerContext ctx, @NotNull Object msg) throws Exception {
+        if (msg instanceof ByteBuf) {
+            if (session == null) {
+                // Real address is applied by PROXY protocol handler before the first data gets here
+                session = capture.start(connection.getAddress(), startMillis, startNanos);
+
+                if (session == null) {
+                    ctx.pipeline().remove(this);
+                    super.channelRead(ctx, msg);
+                    return;
+                }
+            }
+
+            session.write((ByteBuf) msg);
+        }
+
+        super.channelRead(ctx, msg);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        if (session != null)
+            session.close();
+    }
+}
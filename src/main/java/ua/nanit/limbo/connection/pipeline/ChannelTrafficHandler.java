@@ -4,7 +4,9 @@ import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import org.jetbrains.annotations.NotNull;
+import ua.nanit.limbo.connection.ConnectionStats;
 import ua.nanit.limbo.server.Log;
+import ua.nanit.limbo.server.jfr.LimboEvents;
 
 import java.util.Arrays;
 
@@ -13,8 +15,10 @@ public class ChannelTrafficHandler extends ChannelInboundHandlerAdapter {
     private final int maxPacketSize;
     private final double maxPacketRate;
     private final PacketBucket packetBucket;
+    private final ConnectionStats stats;
 
-    public ChannelTrafficHandler(int maxPacketSize, double interval, double maxPacketRate) {
+    public ChannelTrafficHandler(int maxPacketSize, double interval, double maxPacketRate, ConnectionStats stats) {
+        this.stats = stats;
         this.maxPacketSize = maxPacketSize;
         this.maxPacketRate = maxPacketRate;
         this.packetBucket = (interval > 0.0 && maxPacketRate > 0.0) ? new PacketBucket(interval * 1000.0, 150) : null;
@@ -27,6 +31,8 @@ public class ChannelTrafficHandler extends ChannelInboundHandlerAdapter {
             int bytes = in.readableBytes();
 
             if (maxPacketSize > 0 && bytes > maxPacketSize) {
+                stats.incrementPacketSizeKicks();
+                LimboEvents.trafficKicked(ctx.channel().remoteAddress(), "packet_size", bytes);
                 closeConnection(ctx, "Closed %s due to large packet size (%d bytes)", ctx.channel().remoteAddress(), bytes);
                 return;
             }
@@ -34,6 +40,8 @@ public class ChannelTrafficHandler extends ChannelInboundHandlerAdapter {
             if (packetBucket != null) {
                 packetBucket.incrementPackets(1);
                 if (packetBucket.getCurrentPacketRate() > maxPacketRate) {
+                    stats.incrementPacketRateKicks();
+                    LimboEvents.trafficKicked(ctx.channel().remoteAddress(), "packet_rate", packetBucket.sum);
                     closeConnection(ctx, "Closed %s due to many packets sent (%d in the last %.1f seconds)", ctx.channel().remoteAddress(), packetBucket.sum, (packetBucket.intervalTime / 1000.0));
                     return;
                 }
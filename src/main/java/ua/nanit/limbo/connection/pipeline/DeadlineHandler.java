@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.connection.pipeline;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+import org.jetbrains.annotations.NotNull;
+import ua.nanit.limbo.configuration.LimboConfig;
+import ua.nanit.limbo.connection.ConnectionStats;
+import ua.nanit.limbo.protocol.registry.State;
+import ua.nanit.limbo.server.Log;
+import ua.nanit.limbo.server.jfr.LimboEvents;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Closes connections which don't send any data for configured time,
+ * stay in a single state for too long or don't read data sent to them. Deadlines are kept in the shared
+ * hashed wheel timer instead of tasks of the event loop. Read deadline is not
+ * rescheduled on every read, but re-armed with the rest of time when it expires
+ */
+public class DeadlineHandler extends ChannelInboundHandlerAdapter {
+
+    private final Timer timer;
+    private final LimboConfig config;
+    private final ConnectionStats stats;
+    private final long readTimeoutNanos;
+
+    private Channel channel;
+    private volatile long lastRead;
+    private volatile Timeout readTimeout;
+    private volatile Timeout stateTimeout;
+    private volatile Timeout unwritableTimeout;
+    private long unwritableSince;
+    private volatile State state;
+
+    public DeadlineHandler(Timer timer, LimboConfig config, ConnectionStats stats) {
+        this.timer = timer;
+        this.config = config;
+        this.stats = stats;
+        this.readTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(config.getReadTimeout());
+    }
+
+    @Override
+    public void channelActive(@NotNull ChannelHandlerContext ctx) throws Exception {
+        channel = ctx.channel();
+        lastRead = System.nanoTime();
+
+        if (readTimeoutNanos > 0)
+            readTimeout = timer.newTimeout(new ReadTimeoutTask(), readTimeoutNanos, TimeUnit.NANOSECONDS);
+
+        updateState(State.HANDSHAKING);
+        super.channelActive(ctx);
+    }
+
+    @Override
+    public void channelRead(@NotNull ChannelHandlerContext ctx, @NotNull Object msg) throws Exception {
+        lastRead = System.nanoTime();
+        super.channelRead(ctx, msg);
+    }
+
+    @Override
+    public void channelInactive(@NotNull ChannelHandlerContext ctx) throws Exception {
+        cancel(readTimeout);
+        cancel(stateTimeout);
+        cancel(unwritableTimeout);
+
+        if (unwritableSince != 0)
+            LimboEvents.unwritableStall(channel.remoteAddress(), System.nanoTime() - unwritableSince, true);
+
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void channelWritabilityChanged(@NotNull ChannelHandlerContext ctx) throws Exception {
+        long timeout = config.getUnwritableTimeout();
+
+        if (ctx.channel().isWritable()) {
+            cancel(unwritableTimeout);
+            unwritableTimeout = null;
+
+            if (unwritableSince != 0) {
+                LimboEvents.unwritableStall(channel.remoteAddress(), System.nanoTime() - unwritableSince, false);
+                unwritableSince = 0;
+            }
+        } else {
+            if (unwritableSince == 0)
+                unwritableSince = System.nanoTime();
+
+            if (timeout > 0 && unwritableTimeout == null)
+                unwritableTimeout = timer.newTimeout(new UnwritableTimeoutTask(), timeout, TimeUnit.MILLISECONDS);
+        }
+
+        super.channelWritabilityChanged(ctx);
+    }
+
+    /**
+     * Replace deadline of the previous state with deadline of the new one
+     * @param state New connection state
+     */
+    public void updateState(State state) {
+        this.state = state;
+        cancel(stateTimeout);
+
+        long timeout = config.getStateTimeout(state);
+
+        if (timeout > 0 && channel != null && channel.isActive())
+            stateTimeout = timer.newTimeout(new StateTimeoutTask(state), timeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Cancel deadline of the current state until the next state update
+     */
+    public void pauseState() {
+        cancel(stateTimeout);
+    }
+
+    private static void cancel(Timeout timeout) {
+        if (timeout != null)
+            timeout.cancel();
+    }
+
+    private final class ReadTimeoutTask implements TimerTask {
+
+        @Override
+        public void run(Timeout timeout) {
+            if (!channel.isActive())
+                return;
+
+            long remaining = readTimeoutNanos - (System.nanoTime() - lastRead);
+
+            if (remaining > 0) {
+                readTimeout = timer.newTimeout(this, remaining, TimeUnit.NANOSECONDS);
+                return;
+            }
+
+            channel.close();
+            stats.incrementReadTimeouts();
+            Log.debug("Closed %s due to read timeout", channel.remoteAddress());
+        }
+    }
+
+    private final class UnwritableTimeoutTask implements TimerTask {
+
+        @Override
+        public void run(Timeout timeout) {
+            if (!channel.isActive() || channel.isWritable())
+                return;
+
+            channel.close();
+            stats.incrementUnwritableEvictions();
+            Log.debug("Closed %s since it doesn't read sent data", channel.remoteAddress());
+        }
+    }
+
+    private final class StateTimeoutTask implements TimerTask {
+
+        private final State expectedState;
+
+        private StateTimeoutTask(State expectedState) {
+            this.expectedState = expectedState;
+        }
+
+        @Override
+        public void run(Timeout timeout) {
+            if (!channel.isActive() || state != expectedState)
+                return;
+
+            channel.close();
+            stats.incrementStateTimeouts(expectedState);
+            Log.debug("Closed %s due to %s state timeout", channel.remoteAddress(), expectedState);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.connection.pipeline;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.haproxy.HAProxyCommand;
+import io.netty.handler.codec.haproxy.HAProxyMessage;
+import io.netty.handler.codec.haproxy.HAProxyProxiedProtocol;
+import org.jetbrains.annotations.NotNull;
+import ua.nanit.limbo.connection.ClientConnection;
+import ua.nanit.limbo.server.Log;
+import ua.nanit.limbo.server.jfr.LimboEvents;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Applies the client address received in HAProxy PROXY header to the connection
+ * and emits the connection accept event with it.
+ * Removes itself from the pipeline once the header is handled
+ */
+public class HAProxyMessageHandler extends ChannelInboundHandlerAdapter {
+
+    private final ClientConnection connection;
+    private final AcceptFilterHandler acceptFilter;
+    private boolean accepted;
+
+    /**
+     * @param connection Connection to apply address to
+     * @param acceptFilter Filter to check real address with. Nullable
+     */
+    public HAProxyMessageHandler(ClientConnection connection, AcceptFilterHandler acceptFilter) {
+        this.connection = connection;
+        this.acceptFilter = acceptFilter;
+    }
+
+    @Override
+    public void channelRead(@NotNull ChannelHandlerContext ctx, @NotNull Object msg) throws Exception {
+        if (!(msg instanceof HAProxyMessage)) {
+            super.channelRead(ctx, msg);
+            return;
+        }
+
+        HAProxyMessage message = (HAProxyMessage) msg;
+
+        try {
+            HAProxyProxiedProtocol.AddressFamily family = message.proxiedProtocol().addressFamily();
+            InetSocketAddress address = null;
+
+            if (message.command() == HAProxyCommand.PROXY
+                    && (family == HAProxyProxiedProtocol.AddressFamily.AF_IPv4
+                    || family == HAProxyProxiedProtocol.AddressFamily.AF_IPv6)) {
+                address = new InetSocketAddress(message.sourceAddress(), message.sourcePort());
+                connection.setAddress(address);
+                Log.debug("PROXY header from %s: real address is %s", ctx.channel().remoteAddress(), address);
+            }
+
+            accepted = true;
+            LimboEvents.connectionAccepted(connection.getAddress());
+
+            if (address != null && acceptFilter != null && !acceptFilter.accept(ctx.channel(), address.getAddress())) {
+                ctx.close();
+                return;
+            }
+        } finally {
+            message.release();
+        }
+
+        ctx.pipeline().remove(this);
+    }
+
+    @Override
+    public void channelInactive(@NotNull ChannelHandlerContext ctx) throws Exception {
+        // Closed before the header, so the event has the proxy address
+        if (!accepted) {
+            accepted = true;
+            LimboEvents.connectionAccepted(connection.getAddress());
+        }
+
+        super.channelInactive(ctx);
+    }
+}
@@ -20,20 +20,25 @@ package ua.nanit.limbo.connection.pipeline;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToMessageDecoder;
+import ua.nanit.limbo.connection.ConnectionStats;
 import ua.nanit.limbo.protocol.ByteMessage;
 import ua.nanit.limbo.protocol.Packet;
 import ua.nanit.limbo.protocol.registry.State;
 import ua.nanit.limbo.protocol.registry.Version;
 import ua.nanit.limbo.server.Log;
+import ua.nanit.limbo.server.jfr.LimboEvents;
 
 import java.util.List;
 
 public class PacketDecoder extends MessageToMessageDecoder<ByteBuf> {
 
+    private final ConnectionStats stats;
     private State.PacketRegistry mappings;
+    private State state;
     private Version version;
 
-    public PacketDecoder() {
+    public PacketDecoder(ConnectionStats stats) {
+        this.stats = stats;
         updateVersion(Version.getMin());
         updateState(State.HANDSHAKING);
     }
@@ -42,15 +47,21 @@ public class PacketDecoder extends MessageToMessageDecoder<ByteBuf> {
     protected void decode(ChannelHandlerContext ctx, ByteBuf buf, List<Object> out) throws Exception {
         if (!ctx.channel().isActive() || mappings == null) return;
 
+        int size = buf.readableBytes();
         ByteMessage msg = new ByteMessage(buf);
         int packetId = msg.readVarInt();
         Packet packet = mappings.getPacket(packetId);
 
+        stats.getPacketCounters().onReceived(state, packetId, size, packet != null);
+
         if (packet != null) {
             Log.debug("Received packet %s[0x%s] (%d bytes)", packet.toString(), Integer.toHexString(packetId), msg.readableBytes());
             try {
                 packet.decode(msg, version);
             } catch (Exception e) {
+                stats.incrementDecodeErrors();
+                LimboEvents.decodeFailed(ctx.channel().remoteAddress(), state, packetId, size, e);
+
                 if (Log.isDebug()) {
                     Log.warning("Cannot decode packet 0x%s", e, Integer.toHexString(packetId));
                 } else {
@@ -69,6 +80,7 @@ public class PacketDecoder extends MessageToMessageDecoder<ByteBuf> {
     }
 
     public void updateState(State state) {
+        this.state = state;
         this.mappings = state.serverBound.getRegistry(version);
     }
 }
@@ -20,6 +20,7 @@ package ua.nanit.limbo.connection.pipeline;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToByteEncoder;
+import ua.nanit.limbo.connection.ConnectionStats;
 import ua.nanit.limbo.protocol.ByteMessage;
 import ua.nanit.limbo.protocol.Packet;
 import ua.nanit.limbo.protocol.PacketSnapshot;
@@ -29,10 +30,13 @@ import ua.nanit.limbo.server.Log;
 
 public class PacketEncoder extends MessageToByteEncoder<Packet> {
 
+    private final ConnectionStats stats;
     private State.PacketRegistry registry;
+    private State state;
     private Version version;
 
-    public PacketEncoder() {
+    public PacketEncoder(ConnectionStats stats) {
+        this.stats = stats;
         updateVersion(Version.getMin());
         updateState(State.HANDSHAKING);
     }
@@ -41,6 +45,7 @@ public class PacketEncoder extends MessageToByteEncoder<Packet> {
     protected void encode(ChannelHandlerContext ctx, Packet packet, ByteBuf out) throws Exception {
         if (registry == null) return;
 
+        int start = out.writerIndex();
         ByteMessage msg = new ByteMessage(out);
         int packetId;
 
@@ -59,6 +64,7 @@ public class PacketEncoder extends MessageToByteEncoder<Packet> {
 
         try {
             packet.encode(msg, version);
+            stats.getPacketCounters().onSent(state, packetId, out.writerIndex() - start);
 
             if (Log.isDebug()) {
                 Log.debug("Sending %s[0x%s] packet (%d bytes)", packet.toString(), Integer.toHexString(packetId), msg.readableBytes());
@@ -73,6 +79,7 @@ public class PacketEncoder extends MessageToByteEncoder<Packet> {
     }
 
     public void updateState(State state) {
+        this.state = state;
         this.registry = state.clientBound.getRegistry(version);
     }
 
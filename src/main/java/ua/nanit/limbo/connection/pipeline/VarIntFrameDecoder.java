@@ -20,12 +20,19 @@ package ua.nanit.limbo.connection.pipeline;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageDecoder;
+import ua.nanit.limbo.connection.ConnectionStats;
 import ua.nanit.limbo.server.Log;
 
 import java.util.List;
 
 public class VarIntFrameDecoder extends ByteToMessageDecoder {
 
+    private final ConnectionStats stats;
+
+    public VarIntFrameDecoder(ConnectionStats stats) {
+        this.stats = stats;
+    }
+
     @Override
     protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
         if (!ctx.channel().isActive()) {
@@ -42,6 +49,7 @@ public class VarIntFrameDecoder extends ByteToMessageDecoder {
             int readVarInt = reader.getReadVarInt();
             int bytesRead = reader.getBytesRead();
             if (readVarInt < 0) {
+                stats.incrementDecodeErrors();
                 Log.error("[VarIntFrameDecoder] Bad data length");
             } else if (readVarInt == 0) {
                 in.readerIndex(varIntEnd + 1);
@@ -51,9 +59,11 @@ public class VarIntFrameDecoder extends ByteToMessageDecoder {
                 if (in.isReadable(minimumRead)) {
                     out.add(in.retainedSlice(varIntEnd + 1, readVarInt));
                     in.skipBytes(minimumRead);
+                    stats.onPacketIn(minimumRead);
                 }
             }
         } else if (reader.getResult() == VarIntByteDecoder.DecodeResult.TOO_BIG) {
+            stats.incrementDecodeErrors();
             Log.error("[VarIntFrameDecoder] Too big data");
         }
     }
@@ -21,16 +21,25 @@ import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToByteEncoder;
+import ua.nanit.limbo.connection.ConnectionStats;
 import ua.nanit.limbo.protocol.ByteMessage;
 
 @ChannelHandler.Sharable
 public class VarIntLengthEncoder extends MessageToByteEncoder<ByteBuf> {
 
+    private final ConnectionStats stats;
+
+    public VarIntLengthEncoder(ConnectionStats stats) {
+        this.stats = stats;
+    }
+
     @Override
     protected void encode(ChannelHandlerContext ctx, ByteBuf buf, ByteBuf out) {
+        int start = out.writerIndex();
         ByteMessage msg = new ByteMessage(out);
         msg.writeVarInt(buf.readableBytes());
         msg.writeBytes(buf);
+        stats.onPacketOut(out.writerIndex() - start);
     }
 
     @Override
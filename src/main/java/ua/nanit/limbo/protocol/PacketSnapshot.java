@@ -75,6 +75,32 @@ public class PacketSnapshot implements PacketOut {
             throw new IllegalArgumentException("No mappings for version " + version);
     }
 
+    /**
+     * @return Bytes of encoded packet summed over all versions, as if every version had its own copy
+     */
+    public long getEncodedBytes() {
+        long bytes = 0;
+
+        for (Version mapped : mappings.values()) {
+            bytes += versionMessages.get(mapped).length;
+        }
+
+        return bytes;
+    }
+
+    /**
+     * @return Bytes actually stored after versions with the same encoding share one copy
+     */
+    public long getStoredBytes() {
+        long bytes = 0;
+
+        for (byte[] message : versionMessages.values()) {
+            bytes += message.length;
+        }
+
+        return bytes;
+    }
+
     @Override
     public String toString() {
         return packet.getClass().getSimpleName();
@@ -17,9 +17,11 @@
 
 package ua.nanit.limbo.protocol.packets.play;
 
+import ua.nanit.limbo.connection.ClientConnection;
 import ua.nanit.limbo.protocol.ByteMessage;
 import ua.nanit.limbo.protocol.Packet;
 import ua.nanit.limbo.protocol.registry.Version;
+import ua.nanit.limbo.server.LimboServer;
 
 public class PacketKeepAlive implements Packet {
 
@@ -55,6 +57,11 @@ public class PacketKeepAlive implements Packet {
         }
     }
 
+    @Override
+    public void handle(ClientConnection conn, LimboServer server) {
+        server.getPacketHandler().handle(conn, this);
+    }
+
     @Override
     public String toString() {
         return getClass().getSimpleName();
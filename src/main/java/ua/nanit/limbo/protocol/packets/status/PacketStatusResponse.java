@@ -20,47 +20,46 @@ package ua.nanit.limbo.protocol.packets.status;
 import ua.nanit.limbo.protocol.ByteMessage;
 import ua.nanit.limbo.protocol.PacketOut;
 import ua.nanit.limbo.protocol.registry.Version;
-import ua.nanit.limbo.server.LimboServer;
 
+/**
+ * Status response with pre-encoded JSON. The same instance is sent to many clients
+ */
 public class PacketStatusResponse implements PacketOut {
 
-    private static final String TEMPLATE = "{ \"version\": { \"name\": \"%s\", \"protocol\": %d }, \"players\": { \"max\": %d, \"online\": %d, \"sample\": [] }, \"description\": %s }";
-
-    private LimboServer server;
+    private byte[] encoded;
+    private int online;
 
     public PacketStatusResponse() { }
 
-    public PacketStatusResponse(LimboServer server) {
-        this.server = server;
+    public PacketStatusResponse(String json, int online) {
+        ByteMessage msg = ByteMessage.create();
+        msg.writeString(json);
+        this.encoded = msg.toByteArray();
+        this.online = online;
+        msg.release();
     }
 
-    @Override
-    public void encode(ByteMessage msg, Version version) {
-        int protocol;
-        int staticProtocol =  server.getConfig().getPingData().getProtocol();
-
-        if (staticProtocol > 0) {
-            protocol = staticProtocol;
-        } else {
-            protocol = server.getConfig().getInfoForwarding().isNone()
-                    ? version.getProtocolNumber()
-                    : Version.getMax().getProtocolNumber();
-        }
+    /**
+     * @return Online players count written in this response
+     */
+    public int getOnline() {
+        return online;
+    }
 
-        String ver = server.getConfig().getPingData().getVersion();
-        String desc = server.getConfig().getPingData().getDescription();
+    /**
+     * @return Size of encoded response in bytes
+     */
+    public int getSize() {
+        return encoded.length;
+    }
 
-        msg.writeString(getResponseJson(ver, protocol,
-                server.getConfig().getMaxPlayers(),
-                server.getConnections().getCount(), desc));
+    @Override
+    public void encode(ByteMessage msg, Version version) {
+        msg.writeBytes(encoded);
     }
 
     @Override
     public String toString() {
         return getClass().getSimpleName();
     }
-
-    private String getResponseJson(String version, int protocol, int maxPlayers, int online, String description) {
-        return String.format(TEMPLATE, version, protocol, maxPlayers, online, description);
-    }
 }
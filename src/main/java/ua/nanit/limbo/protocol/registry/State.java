@@ -413,8 +413,9 @@ public enum State {
     public static class PacketRegistry {
 
         private final Version version;
-        private final Map<Integer, Supplier<?>> packetsById = new HashMap<>();
         private final Map<Class<?>, Integer> packetIdByClass = new HashMap<>();
+        // Packet ids are small and dense, so lookup by id is plain array access
+        private Supplier<?>[] packetsById = new Supplier<?>[0];
 
         public PacketRegistry(Version version) {
             this.version = version;
@@ -425,7 +426,10 @@ public enum State {
         }
 
         public Packet getPacket(int packetId) {
-            Supplier<?> supplier = packetsById.get(packetId);
+            if (packetId < 0 || packetId >= packetsById.length)
+                return null;
+
+            Supplier<?> supplier = packetsById[packetId];
             return supplier == null ? null : (Packet) supplier.get();
         }
 
@@ -434,7 +438,10 @@ public enum State {
         }
 
         public void register(int packetId, Supplier<?> supplier) {
-            packetsById.put(packetId, supplier);
+            if (packetId >= packetsById.length)
+                packetsById = Arrays.copyOf(packetsById, packetId + 1);
+
+            packetsById[packetId] = supplier;
             packetIdByClass.put(supplier.get().getClass(), packetId);
         }
 
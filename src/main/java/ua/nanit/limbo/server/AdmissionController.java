@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.server;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reserves player slots at login start, so concurrent logins can't overshoot max players.
+ * Capacity is split between striped counters to avoid contention on a single one.
+ * When a stripe is full, slot is taken from other stripes
+ */
+public final class AdmissionController {
+
+    // Counters are spaced apart to keep them in different cache lines
+    private static final int PADDING = 16;
+
+    private final int stripes;
+    private final int[] capacities;
+    private final AtomicIntegerArray counters;
+    private final LongAdder confirmed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final int capacity;
+
+    /**
+     * @param capacity Max amount of slots. Zero or negative value means unlimited
+     */
+    public AdmissionController(int capacity) {
+        int stripes = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1);
+
+        if (capacity > 0)
+            stripes = Math.min(stripes, Integer.highestOneBit(capacity));
+
+        this.stripes = stripes;
+        this.capacity = capacity;
+        this.capacities = new int[stripes];
+        this.counters = new AtomicIntegerArray(stripes * PADDING);
+
+        for (int i = 0; i < stripes; i++) {
+            capacities[i] = capacity > 0
+                    ? capacity / stripes + (i < capacity % stripes ? 1 : 0)
+                    : Integer.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Try to reserve slot
+     * @return Index of stripe which holds the slot, or -1 if there are no free slots
+     */
+    public int tryReserve() {
+        int start = (int) Thread.currentThread().getId() & (stripes - 1);
+
+        for (int i = 0; i < stripes; i++) {
+            int stripe = (start + i) & (stripes - 1);
+            int index = stripe * PADDING;
+            int current;
+
+            while ((current = counters.get(index)) < capacities[stripe]) {
+                if (counters.compareAndSet(index, current, current + 1))
+                    return stripe;
+            }
+        }
+
+        rejected.increment();
+        return -1;
+    }
+
+    /**
+     * Mark reserved slot as used by a player who finished login
+     */
+    public void confirm() {
+        confirmed.increment();
+    }
+
+    /**
+     * Release slot
+     * @param stripe Stripe returned by {@link #tryReserve()}
+     * @param confirmed Whether slot was confirmed
+     */
+    public void release(int stripe, boolean confirmed) {
+        counters.decrementAndGet(stripe * PADDING);
+
+        if (confirmed)
+            this.confirmed.decrement();
+    }
+
+    /**
+     * @return Max amount of slots or zero if unlimited
+     */
+    public int getCapacity() {
+        return Math.max(0, capacity);
+    }
+
+    public int getInUse() {
+        return (int) confirmed.sum();
+    }
+
+    public int getReserved() {
+        int held = 0;
+
+        for (int i = 0; i < stripes; i++) {
+            held += counters.get(i * PADDING);
+        }
+
+        return Math.max(0, held - getInUse());
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+}
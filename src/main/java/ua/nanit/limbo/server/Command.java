@@ -4,6 +4,14 @@ public interface Command {
 
     void execute();
 
+    /**
+     * Execute command with arguments given after its name.
+     * By default arguments are ignored
+     */
+    default void execute(String[] args) {
+        execute();
+    }
+
     String description();
 
 }
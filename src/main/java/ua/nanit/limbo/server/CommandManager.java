@@ -34,11 +34,12 @@ public final class CommandManager extends Thread {
                 break;
             }
 
-            Command handler = getCommand(command);
+            String[] parts = command.split("\\s+");
+            Command handler = getCommand(parts[0]);
 
             if (handler != null) {
                 try {
-                    handler.execute();
+                    handler.execute(Arrays.copyOfRange(parts, 1, parts.length));
                 } catch (Throwable t) {
                     Log.error("Cannot execute command:", t);
                 }
@@ -52,7 +53,10 @@ public final class CommandManager extends Thread {
     public void registerAll(LimboServer server) {
         register(new CmdHelp(server), "help");
         register(new CmdConn(server), "conn");
-        register(new CmdMem(), "mem");
+        register(new CmdMem(server), "mem");
+        register(new CmdLoops(server), "loops");
+        register(new CmdPackets(server), "packets");
+        register(new CmdCapture(server), "capture");
         register(new CmdStop(), "stop");
         register(new CmdVersion(), "version", "ver");
     }
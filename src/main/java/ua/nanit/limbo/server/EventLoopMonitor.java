@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.server;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.ScheduledFuture;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+import ua.nanit.limbo.util.Histogram;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how late event loops run scheduled tasks. Each loop runs its own probe which
+ * reschedules itself, so the delay shows time the loop spent on other work or blocked
+ */
+public final class EventLoopMonitor {
+
+    private static final long WARN_COOLDOWN_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final long intervalNanos;
+    private final long warnThresholdNanos;
+    private final List<Probe> probes = new ArrayList<>();
+
+    private volatile boolean stopped;
+
+    /**
+     * @param intervalMillis Time between probes of a loop
+     * @param warnThresholdMillis Lag to log warning about
+     */
+    public EventLoopMonitor(long intervalMillis, long warnThresholdMillis) {
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.warnThresholdNanos = TimeUnit.MILLISECONDS.toNanos(warnThresholdMillis);
+    }
+
+    /**
+     * Start probes on all loops of the group
+     * @param name Group name used as prefix of loop names
+     */
+    public void monitor(String name, EventLoopGroup group) {
+        int index = 0;
+
+        for (EventExecutor executor : group) {
+            Probe probe = new Probe(name + "-" + index++, executor);
+            probes.add(probe);
+            probe.schedule();
+        }
+    }
+
+    public List<Probe> getProbes() {
+        return Collections.unmodifiableList(probes);
+    }
+
+    public void stop() {
+        stopped = true;
+
+        for (Probe probe : probes) {
+            ScheduledFuture<?> future = probe.future;
+
+            if (future != null)
+                future.cancel(false);
+        }
+    }
+
+    public final class Probe implements Runnable {
+
+        private final String name;
+        private final EventExecutor executor;
+        private final Histogram lag = new Histogram();
+
+        private volatile ScheduledFuture<?> future;
+        private volatile long lastLag;
+        private volatile int pendingTasks;
+        private long expectedAt;
+        private long lastWarning;
+
+        private Probe(String name, EventExecutor executor) {
+            this.name = name;
+            this.executor = executor;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return Histogram of scheduling delays in microseconds
+         */
+        public Histogram getLag() {
+            return lag;
+        }
+
+        /**
+         * @return Delay of the last probe in microseconds
+         */
+        public long getLastLag() {
+            return lastLag;
+        }
+
+        /**
+         * @return Tasks waiting in the loop queue at the last probe, or -1 if the loop doesn't report it
+         */
+        public int getPendingTasks() {
+            return pendingTasks;
+        }
+
+        private void schedule() {
+            if (stopped || executor.isShuttingDown())
+                return;
+
+            expectedAt = System.nanoTime() + intervalNanos;
+            future = executor.schedule(this, intervalNanos, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void run() {
+            long now = System.nanoTime();
+            long delay = Math.max(0, now - expectedAt);
+            long micros = TimeUnit.NANOSECONDS.toMicros(delay);
+
+            lag.record(micros);
+            lastLag = micros;
+            pendingTasks = executor instanceof SingleThreadEventExecutor
+                    ? ((SingleThreadEventExecutor) executor).pendingTasks() : -1;
+
+            if (warnThresholdNanos > 0 && delay >= warnThresholdNanos && now - lastWarning >= WARN_COOLDOWN_NANOS) {
+                lastWarning = now;
+                Log.warning("Event loop %s is %d ms behind, %d tasks pending. Is something blocking it?",
+                        name, TimeUnit.NANOSECONDS.toMillis(delay), pendingTasks);
+            }
+
+            schedule();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.server;
+
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tracks open connections and accept rate for each source IP.
+ * Accept rate is limited with token bucket, so short bursts are allowed.
+ * Entries without open connections and with full bucket are removed by cleanup task
+ */
+public final class IpConnectionLimiter {
+
+    private static final double NANOS_IN_SECOND = 1_000_000_000.0;
+
+    private final int maxConnections;
+    private final double acceptRate;
+    private final int acceptBurst;
+    private final Map<InetAddress, Entry> entries = new ConcurrentHashMap<>();
+
+    private final LongAdder rejectedByConnections = new LongAdder();
+    private final LongAdder rejectedByRate = new LongAdder();
+
+    public IpConnectionLimiter(int maxConnections, double acceptRate, int acceptBurst) {
+        this.maxConnections = maxConnections;
+        this.acceptRate = acceptRate;
+        this.acceptBurst = Math.max(1, acceptBurst);
+    }
+
+    /**
+     * Try to register new connection from address
+     * @param address Source address of connection
+     * @return true if connection is allowed. Allowed connection must be released on close
+     */
+    public boolean tryAcquire(InetAddress address) {
+        long now = System.nanoTime();
+        boolean[] result = new boolean[1];
+
+        entries.compute(address, (key, entry) -> {
+            if (entry == null) {
+                entry = new Entry(acceptBurst, now);
+            }
+            result[0] = tryAcquire(entry, now);
+            return entry;
+        });
+
+        return result[0];
+    }
+
+    public void release(InetAddress address) {
+        entries.computeIfPresent(address, (key, entry) -> {
+            entry.connections--;
+            return entry;
+        });
+    }
+
+    /**
+     * Remove entries of addresses which have no open connections and can connect with full burst again
+     */
+    public void cleanup() {
+        long now = System.nanoTime();
+
+        for (InetAddress address : entries.keySet()) {
+            entries.computeIfPresent(address, (key, entry) -> {
+                refill(entry, now);
+                boolean idle = entry.connections <= 0 && (acceptRate <= 0 || entry.tokens >= acceptBurst);
+                return idle ? null : entry;
+            });
+        }
+    }
+
+    public int getTrackedAddresses() {
+        return entries.size();
+    }
+
+    public long getRejectedByConnections() {
+        return rejectedByConnections.sum();
+    }
+
+    public long getRejectedByRate() {
+        return rejectedByRate.sum();
+    }
+
+    private boolean tryAcquire(Entry entry, long now) {
+        if (maxConnections > 0 && entry.connections >= maxConnections) {
+            rejectedByConnections.increment();
+            return false;
+        }
+
+        if (acceptRate > 0) {
+            refill(entry, now);
+
+            if (entry.tokens < 1.0) {
+                rejectedByRate.increment();
+                return false;
+            }
+
+            entry.tokens -= 1.0;
+        }
+
+        entry.connections++;
+        return true;
+    }
+
+    private void refill(Entry entry, long now) {
+        double elapsed = (now - entry.lastRefill) / NANOS_IN_SECOND;
+
+        if (elapsed > 0) {
+            entry.tokens = Math.min(acceptBurst, entry.tokens + elapsed * acceptRate);
+            entry.lastRefill = now;
+        }
+    }
+
+    private static final class Entry {
+
+        private int connections;
+        private double tokens;
+        private long lastRefill;
+
+        private Entry(int tokens, long lastRefill) {
+            this.tokens = tokens;
+            this.lastRefill = lastRefill;
+        }
+    }
+}
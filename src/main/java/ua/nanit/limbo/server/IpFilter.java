@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.server;
+
+import ua.nanit.limbo.util.Cidr;
+import ua.nanit.limbo.util.CidrSet;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Blocklist and allowlist of networks loaded from files.
+ * Files are compiled into new sets off the event loops and swapped at once,
+ * so lookups never wait for reload
+ */
+public final class IpFilter {
+
+    private static final long MISSING = -1;
+    private static final long UNREADABLE = -2;
+
+    private final Path blocklistFile;
+    private final Path allowlistFile;
+
+    private volatile CidrSet blocklist = CidrSet.empty();
+    private volatile CidrSet allowlist = CidrSet.empty();
+
+    // Used only by reload thread
+    private long blocklistModified = MISSING;
+    private long allowlistModified = MISSING;
+
+    private final LongAdder blocked = new LongAdder();
+
+    public IpFilter(Path blocklistFile, Path allowlistFile) {
+        this.blocklistFile = blocklistFile;
+        this.allowlistFile = allowlistFile;
+    }
+
+    /**
+     * Allowlisted addresses bypass blocklist and per IP limits
+     */
+    public boolean isAllowed(InetAddress address) {
+        return allowlist.contains(address);
+    }
+
+    public boolean isBlocked(InetAddress address) {
+        if (blocklist.contains(address)) {
+            blocked.increment();
+            return true;
+        }
+        return false;
+    }
+
+    public long getBlocked() {
+        return blocked.sum();
+    }
+
+    /**
+     * Reload files which were changed since last call.
+     * File which can't be read keeps its current set and is read again on the next call
+     */
+    public synchronized void reload() {
+        long modified = lastModified(blocklistFile);
+
+        if (modified != UNREADABLE && modified != blocklistModified) {
+            CidrSet set = load(blocklistFile, "blocklist");
+
+            if (set != null) {
+                blocklist = set;
+                blocklistModified = modified;
+            }
+        }
+
+        modified = lastModified(allowlistFile);
+
+        if (modified != UNREADABLE && modified != allowlistModified) {
+            CidrSet set = load(allowlistFile, "allowlist");
+
+            if (set != null) {
+                allowlist = set;
+                allowlistModified = modified;
+            }
+        }
+    }
+
+    /**
+     * @return Compiled set, or null if file can't be read
+     */
+    private static CidrSet load(Path file, String name) {
+        if (Files.notExists(file))
+            return CidrSet.empty();
+
+        List<Cidr> networks = new ArrayList<>();
+        int invalid = 0;
+
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+
+                if (line.isEmpty() || line.startsWith("#"))
+                    continue;
+
+                try {
+                    networks.add(Cidr.parse(line));
+                } catch (IllegalArgumentException e) {
+                    invalid++;
+                }
+            }
+        } catch (IOException e) {
+            Log.error("Cannot read %s file %s, keeping previous networks: %s", name, file, e.getMessage());
+            return null;
+        }
+
+        CidrSet set = CidrSet.of(networks);
+
+        if (invalid > 0) {
+            Log.warning("Skipped %d invalid lines in %s file %s", invalid, name, file);
+        }
+
+        Log.info("Loaded %d networks (%d ranges) to %s", networks.size(), set.size(), name);
+        return set;
+    }
+
+    private static long lastModified(Path file) {
+        if (Files.notExists(file))
+            return MISSING;
+
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return UNREADABLE;
+        }
+    }
+}
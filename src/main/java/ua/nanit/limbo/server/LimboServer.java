@@ -18,36 +18,79 @@
 package ua.nanit.limbo.server;
 
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.ServerChannel;
+import io.netty.channel.WriteBufferWaterMark;
 import io.netty.channel.epoll.Epoll;
 import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerDomainSocketChannel;
 import io.netty.channel.epoll.EpollServerSocketChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.unix.DomainSocketAddress;
+import io.netty.util.HashedWheelTimer;
 import io.netty.util.ResourceLeakDetector;
+import io.netty.util.Timer;
 import ua.nanit.limbo.configuration.LimboConfig;
 import ua.nanit.limbo.connection.ClientChannelInitializer;
-import ua.nanit.limbo.connection.ClientConnection;
+import ua.nanit.limbo.connection.ConnectionStats;
+import ua.nanit.limbo.connection.KeepAliveScheduler;
 import ua.nanit.limbo.connection.PacketHandler;
 import ua.nanit.limbo.connection.PacketSnapshots;
+import ua.nanit.limbo.connection.StatusResponseCache;
+import ua.nanit.limbo.connection.pipeline.AcceptFilterHandler;
+import ua.nanit.limbo.server.capture.TrafficCapture;
+import ua.nanit.limbo.server.data.Listener;
+import ua.nanit.limbo.server.metrics.MetricsServer;
 import ua.nanit.limbo.world.DimensionRegistry;
 
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 
 public final class LimboServer {
 
     private LimboConfig config;
     private PacketHandler packetHandler;
     private Connections connections;
+    private AdmissionController admission;
+    private ConnectionStats connectionStats;
+    private LoginQueue loginQueue;
+    private MemoryGuard memoryGuard;
+    private EventLoopMonitor eventLoopMonitor;
+    private TrafficCapture trafficCapture;
+    private MetricsServer metricsServer;
     private DimensionRegistry dimensionRegistry;
-    private ScheduledFuture<?> keepAliveTask;
+    private IpConnectionLimiter ipLimiter;
+    private IpConnectionLimiter statusLimiter;
+    private StatusResponseCache statusCache;
+    private IpFilter ipFilter;
+    private ScheduledExecutorService ipFilterReloader;
+    private KeepAliveScheduler keepAliveScheduler;
+    private HashedWheelTimer timer;
+    private ScheduledFuture<?> ipLimiterCleanupTask;
+    private ScheduledFuture<?> statusLimiterCleanupTask;
+    private ScheduledFuture<?> loginQueueTask;
+    private ScheduledFuture<?> memoryGuardTask;
 
     private EventLoopGroup bossGroup;
     private EventLoopGroup workerGroup;
+    // Changed by bind results on event loops
+    private final List<EventLoopGroup> listenerGroups = new CopyOnWriteArrayList<>();
+    private final List<Listener> startedListeners = new CopyOnWriteArrayList<>();
+    private boolean epoll;
 
     private CommandManager commandManager;
 
@@ -63,6 +106,69 @@ public final class LimboServer {
         return connections;
     }
 
+    public AdmissionController getAdmission() {
+        return admission;
+    }
+
+    public ConnectionStats getConnectionStats() {
+        return connectionStats;
+    }
+
+    /**
+     * @return Login queue or null if login pacing is disabled
+     */
+    public LoginQueue getLoginQueue() {
+        return loginQueue;
+    }
+
+    /**
+     * @return Memory guard or null if it's disabled
+     */
+    public MemoryGuard getMemoryGuard() {
+        return memoryGuard;
+    }
+
+    /**
+     * @return Event loop monitor or null if it's disabled
+     */
+    public EventLoopMonitor getEventLoopMonitor() {
+        return eventLoopMonitor;
+    }
+
+    public TrafficCapture getTrafficCapture() {
+        return trafficCapture;
+    }
+
+    /**
+     * @return Per IP limiter of status requests, or null if it's disabled
+     */
+    public IpConnectionLimiter getStatusLimiter() {
+        return statusLimiter;
+    }
+
+    public StatusResponseCache getStatusCache() {
+        return statusCache;
+    }
+
+    public KeepAliveScheduler getKeepAliveScheduler() {
+        return keepAliveScheduler;
+    }
+
+    /**
+     * @return Timer shared by connection deadlines
+     */
+    public Timer getTimer() {
+        return timer;
+    }
+
+    public IpConnectionLimiter getIpLimiter() {
+        return ipLimiter;
+    }
+
+    public IpFilter getIpFilter() {
+        return ipFilter;
+    }
+
     public DimensionRegistry getDimensionRegistry() {
         return dimensionRegistry;
     }
@@ -98,20 +204,43 @@ public final class LimboServer {
         Log.info("Done (43.096s)! For help, type \"help\"");
         ResourceLeakDetector.setLevel(ResourceLeakDetector.Level.DISABLED);
 
-        packetHandler = new PacketHandler(this);
-        dimensionRegistry = new DimensionRegistry(this);
-        dimensionRegistry.load(config.getDimensionType());
-        connections = new Connections();
-
-        PacketSnapshots.initPackets(this);
+        initComponents();
 
         startBootstrap();
 
-        keepAliveTask = workerGroup.scheduleAtFixedRate(this::broadcastKeepAlive, 0L, 5L, TimeUnit.SECONDS);
+        if (config.isUseMetrics()) {
+            metricsServer = new MetricsServer(this, config.getMetricsAddress());
+            metricsServer.start();
+        }
 
-        Runtime.getRuntime().addShutdownHook(new Thread(this::stop, "NanoLimbo shutdown thread"));
+        if (ipLimiter != null) {
+            ipLimiterCleanupTask = bossGroup.scheduleAtFixedRate(ipLimiter::cleanup, 10L, 10L, TimeUnit.SECONDS);
+        }
+
+        if (statusLimiter != null) {
+            statusLimiterCleanupTask = bossGroup.scheduleAtFixedRate(statusLimiter::cleanup, 10L, 10L, TimeUnit.SECONDS);
+        }
+
+        if (memoryGuard != null) {
+            memoryGuardTask = bossGroup.scheduleAtFixedRate(memoryGuard::check, 0L,
+                    config.getMemoryCheckInterval(), TimeUnit.MILLISECONDS);
+        }
+
+        if (config.isUseEventLoopMonitor()) {
+            eventLoopMonitor = new EventLoopMonitor(config.getEventLoopProbeInterval(), config.getEventLoopLagWarning());
+            eventLoopMonitor.monitor("boss", bossGroup);
+            eventLoopMonitor.monitor("worker", workerGroup);
+
+            for (int i = 0; i < listenerGroups.size(); i++) {
+                eventLoopMonitor.monitor("listener" + i, listenerGroups.get(i));
+            }
+        }
+
+        if (loginQueue != null) {
+            loginQueueTask = bossGroup.scheduleAtFixedRate(loginQueue::drain, 50L, 50L, TimeUnit.MILLISECONDS);
+        }
 
-        Log.info("Server started on %s", config.getAddress());
+        Runtime.getRuntime().addShutdownHook(new Thread(this::stop, "NanoLimbo shutdown thread"));
 
         commandManager = new CommandManager();
         commandManager.registerAll(this);
@@ -120,39 +249,214 @@ public final class LimboServer {
         System.gc();
     }
 
-    private void startBootstrap() {
-        Class<? extends ServerChannel> channelClass;
+    /**
+     * Load configuration from the directory and create server components without
+     * opening listeners or starting periodic tasks. Used by in-process tools
+     * @param root Directory with configuration files
+     */
+    public void load(Path root) throws Exception {
+        config = new LimboConfig(root);
+        config.load();
+        Log.setLevel(config.getDebugLevel());
+        initComponents();
+    }
+
+    private void initComponents() throws Exception {
+        packetHandler = new PacketHandler(this);
+        dimensionRegistry = new DimensionRegistry(this);
+        dimensionRegistry.load(config.getDimensionType());
+        connections = new Connections();
+        admission = new AdmissionController(config.getMaxPlayers());
+        connectionStats = new ConnectionStats();
+        trafficCapture = new TrafficCapture(config.getCaptureDirectory(), config.getCaptureMaxFileSize(),
+                config.getCaptureMaxOpenFiles(), config.isUseCapture());
+
+        if (config.isUseMemoryGuard()) {
+            memoryGuard = new MemoryGuard(config.getMemoryShedStatus(), config.getMemoryPauseLogins(),
+                    config.getMemoryRefuseAccepts(), config.getMemoryHysteresis());
+        }
+
+        if (config.isUseLoginQueue()) {
+            loginQueue = new LoginQueue(config.getLoginRate(), config.getLoginBurst(), config.getLoginQueueMaxWait());
+        }
+        timer = new HashedWheelTimer(runnable -> {
+            Thread thread = new Thread(runnable, "NanoLimbo timer");
+            thread.setDaemon(true);
+            return thread;
+        }, 100, TimeUnit.MILLISECONDS, 512);
+        keepAliveScheduler = new KeepAliveScheduler(config.getKeepAliveInterval(), config.getKeepAliveMaxMissed());
+
+        if (config.isUseIpLimits()) {
+            ipLimiter = new IpConnectionLimiter(config.getMaxConnectionsPerIp(),
+                    config.getAcceptRatePerIp(), config.getAcceptBurstPerIp());
+        }
+
+        statusCache = new StatusResponseCache(this);
+
+        if (config.isUseStatusIpLimits()) {
+            statusLimiter = new IpConnectionLimiter(-1, config.getStatusRatePerIp(), config.getStatusBurstPerIp());
+        }
+
+        if (config.isUseIpFilter()) {
+            ipFilter = new IpFilter(config.getBlocklistFile(), config.getAllowlistFile());
+            ipFilter.reload();
+
+            // Big lists take time to compile, so they are reloaded outside of event loops
+            ipFilterReloader = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "NanoLimbo IP filter reloader");
+                thread.setDaemon(true);
+                return thread;
+            });
+            ipFilterReloader.scheduleWithFixedDelay(ipFilter::reload, config.getIpFilterReloadInterval(),
+                    config.getIpFilterReloadInterval(), TimeUnit.SECONDS);
+        }
+
+        PacketSnapshots.initPackets(this);
+    }
+
+    private void startBootstrap() throws InterruptedException {
+        epoll = config.isUseEpoll() && Epoll.isAvailable();
 
-        if (config.isUseEpoll() && Epoll.isAvailable()) {
-            bossGroup = new EpollEventLoopGroup(config.getBossGroupSize());
-            workerGroup = new EpollEventLoopGroup(config.getWorkerGroupSize());
-            channelClass = EpollServerSocketChannel.class;
+        if (epoll) {
             Log.debug("Using Epoll transport type");
         } else {
-            bossGroup = new NioEventLoopGroup(config.getBossGroupSize());
-            workerGroup = new NioEventLoopGroup(config.getWorkerGroupSize());
-            channelClass = NioServerSocketChannel.class;
             Log.debug("Using Java NIO transport type");
         }
 
-        new ServerBootstrap()
-                .group(bossGroup, workerGroup)
-                .channel(channelClass)
-                .childHandler(new ClientChannelInitializer(this))
-                .childOption(ChannelOption.TCP_NODELAY, true)
-                .localAddress(config.getAddress())
-                .bind();
+        bossGroup = createEventLoopGroup(config.getBossGroupSize());
+        workerGroup = createEventLoopGroup(config.getWorkerGroupSize());
+
+        // Bind results are handled by future listeners, which run after waiters of the future are woken
+        CountDownLatch binds = new CountDownLatch(config.getListeners().size());
+
+        for (Listener listener : config.getListeners()) {
+            startListener(listener, binds);
+        }
+
+        binds.await();
+    }
+
+    private void startListener(Listener listener, CountDownLatch binds) {
+        if (listener.isUnixSocket() && !epoll) {
+            Log.error("Listener %s requires Epoll transport for unix socket, skipping it", listener);
+            binds.countDown();
+            return;
+        }
+
+        // Listener with own threads doesn't share event loops with other listeners
+        EventLoopGroup boss = bossGroup;
+        EventLoopGroup worker = workerGroup;
+        List<EventLoopGroup> ownGroups = new ArrayList<>(2);
+
+        if (listener.getBossGroupSize() > 0) {
+            boss = createEventLoopGroup(listener.getBossGroupSize());
+            ownGroups.add(boss);
+        }
+
+        if (listener.getWorkerGroupSize() > 0) {
+            worker = createEventLoopGroup(listener.getWorkerGroupSize());
+            ownGroups.add(worker);
+        }
+
+        listenerGroups.addAll(ownGroups);
+
+        AcceptFilterHandler acceptFilter = null;
+        IpConnectionLimiter limiter = listener.isUseIpLimits() ? ipLimiter : null;
+
+        if (ipFilter != null || limiter != null || memoryGuard != null) {
+            Predicate<InetAddress> trustedProxy = address -> listener.isUseProxyProtocol()
+                    && config.isProxyProtocolTrusted(address);
+            acceptFilter = new AcceptFilterHandler(ipFilter, limiter, memoryGuard, trustedProxy);
+        }
+
+        ServerBootstrap bootstrap = new ServerBootstrap()
+                .group(boss, worker)
+                .childHandler(new ClientChannelInitializer(this, listener, acceptFilter))
+                .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(
+                        config.getWriteBufferLowWaterMark(), config.getWriteBufferHighWaterMark()))
+                .localAddress(listener.getAddress());
+
+        if (acceptFilter != null) {
+            bootstrap.handler(acceptFilter);
+        }
+
+        if (listener.isUnixSocket()) {
+            deleteSocketFile((DomainSocketAddress) listener.getAddress());
+            bootstrap.channel(EpollServerDomainSocketChannel.class);
+        } else {
+            bootstrap.channel(epoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class)
+                    .childOption(ChannelOption.TCP_NODELAY, true);
+        }
+
+        bootstrap.bind().addListener((ChannelFutureListener) future -> {
+            try {
+                if (future.isSuccess()) {
+                    startedListeners.add(listener);
+                    Log.info("Server started on %s", listener);
+                } else {
+                    Log.error("Cannot start listener %s: %s", listener, future.cause().getMessage());
+
+                    for (EventLoopGroup group : ownGroups) {
+                        listenerGroups.remove(group);
+                        group.shutdownGracefully();
+                    }
+                }
+            } finally {
+                binds.countDown();
+            }
+        });
     }
 
-    private void broadcastKeepAlive() {
-        connections.getAllConnections().forEach(ClientConnection::sendKeepAlive);
+    private EventLoopGroup createEventLoopGroup(int threads) {
+        return epoll ? new EpollEventLoopGroup(threads) : new NioEventLoopGroup(threads);
+    }
+
+    private void deleteSocketFile(DomainSocketAddress address) {
+        // Socket file left after previous run prevents bind
+        try {
+            Files.deleteIfExists(Paths.get(address.path()));
+        } catch (IOException e) {
+            Log.error("Cannot delete unix socket file %s: %s", address.path(), e.getMessage());
+        }
     }
 
     private void stop() {
         Log.info("Stopping server...");
 
-        if (keepAliveTask != null) {
-            keepAliveTask.cancel(true);
+        if (keepAliveScheduler != null) {
+            keepAliveScheduler.stop();
+        }
+
+        if (timer != null) {
+            timer.stop();
+        }
+
+        if (ipLimiterCleanupTask != null) {
+            ipLimiterCleanupTask.cancel(true);
+        }
+
+        if (statusLimiterCleanupTask != null) {
+            statusLimiterCleanupTask.cancel(true);
+        }
+
+        if (loginQueueTask != null) {
+            loginQueueTask.cancel(true);
+        }
+
+        if (memoryGuardTask != null) {
+            memoryGuardTask.cancel(true);
+        }
+
+        if (eventLoopMonitor != null) {
+            eventLoopMonitor.stop();
+        }
+
+        if (ipFilterReloader != null) {
+            ipFilterReloader.shutdownNow();
+        }
+
+        if (metricsServer != null) {
+            metricsServer.stop();
         }
 
         if (bossGroup != null) {
@@ -163,6 +467,19 @@ public final class LimboServer {
             workerGroup.shutdownGracefully();
         }
 
+        for (EventLoopGroup group : listenerGroups) {
+            group.shutdownGracefully();
+        }
+
+        if (trafficCapture != null) {
+            trafficCapture.stop();
+        }
+
+        for (Listener listener : startedListeners) {
+            if (listener.isUnixSocket())
+                deleteSocketFile((DomainSocketAddress) listener.getAddress());
+        }
+
         Log.info("Server stopped, Goodbye!");
     }
 
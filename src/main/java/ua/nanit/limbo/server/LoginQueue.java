@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.server;
+
+import ua.nanit.limbo.connection.ClientConnection;
+import ua.nanit.limbo.connection.DisconnectReason;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Paces logins with global token bucket. Logins over the rate wait in FIFO queue
+ * in LOGIN state, and they are admitted by the drain task as tokens become available.
+ * Players waiting longer than max wait are disconnected
+ */
+public final class LoginQueue {
+
+    private static final double NANOS_IN_SECOND = 1_000_000_000.0;
+
+    private final double rate;
+    private final int burst;
+    private final long maxWaitNanos;
+    private final ArrayDeque<Entry> queue = new ArrayDeque<>();
+
+    private double tokens;
+    private long lastRefill;
+    private volatile int depth;
+
+    private final LongAdder queued = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+
+    public LoginQueue(double rate, int burst, long maxWaitMillis) {
+        this.rate = rate;
+        this.burst = Math.max(1, burst);
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        this.tokens = this.burst;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Complete login now if rate allows and nobody is waiting, or put connection in queue.
+     * Must be called from connection's event loop
+     * @param connection Connection which is ready to finish login
+     */
+    public void admit(ClientConnection connection) {
+        boolean immediate;
+
+        synchronized (this) {
+            refill(System.nanoTime());
+            immediate = queue.isEmpty() && tokens >= 1;
+
+            if (immediate) {
+                tokens--;
+            } else {
+                queue.add(new Entry(connection, System.nanoTime()));
+                depth = queue.size();
+            }
+        }
+
+        if (immediate) {
+            connection.fireLoginSuccess();
+        } else {
+            queued.increment();
+            connection.onLoginQueued();
+        }
+    }
+
+    /**
+     * Admit waiting players for which tokens are available and drop expired ones
+     */
+    public void drain() {
+        List<ClientConnection> admitted = new ArrayList<>();
+        List<ClientConnection> expired = new ArrayList<>();
+
+        synchronized (this) {
+            long now = System.nanoTime();
+            refill(now);
+
+            Entry entry;
+            while ((entry = queue.peek()) != null) {
+                if (!entry.connection.isConnected()) {
+                    queue.poll();
+                } else if (maxWaitNanos > 0 && now - entry.time > maxWaitNanos) {
+                    queue.poll();
+                    expired.add(entry.connection);
+                } else if (tokens >= 1) {
+                    queue.poll();
+                    tokens--;
+                    admitted.add(entry.connection);
+                } else {
+                    break;
+                }
+            }
+
+            depth = queue.size();
+        }
+
+        for (ClientConnection connection : admitted) {
+            connection.getChannel().eventLoop().execute(connection::onLoginDequeued);
+        }
+
+        for (ClientConnection connection : expired) {
+            timedOut.increment();
+            connection.getChannel().eventLoop().execute(() ->
+                    connection.disconnectLogin(DisconnectReason.SERVER_BUSY));
+        }
+    }
+
+    private void refill(long now) {
+        tokens = Math.min(burst, tokens + (now - lastRefill) / NANOS_IN_SECOND * rate);
+        lastRefill = now;
+    }
+
+    /**
+     * @return Amount of players waiting in queue
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return Total amount of logins which had to wait in queue
+     */
+    public long getQueued() {
+        return queued.sum();
+    }
+
+    /**
+     * @return Total amount of players disconnected after max wait
+     */
+    public long getTimedOut() {
+        return timedOut.sum();
+    }
+
+    private static final class Entry {
+
+        private final ClientConnection connection;
+        private final long time;
+
+        private Entry(ClientConnection connection, long time) {
+            this.connection = connection;
+            this.time = time;
+        }
+    }
+}
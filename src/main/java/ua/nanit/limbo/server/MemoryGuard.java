@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.server;
+
+import io.netty.util.internal.PlatformDependent;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Samples heap and Netty direct memory usage and switches server to modes which
+ * refuse more and more new work as memory runs out, so players already connected
+ * are kept online. Each mode is left only when usage drops below its threshold
+ * by hysteresis, to avoid flapping around a threshold.
+ * <p>
+ * Heap usage is taken after the last garbage collection, so garbage which is about
+ * to be collected by an ordinary young collection doesn't switch modes
+ */
+public final class MemoryGuard {
+
+    private static final List<MemoryPoolMXBean> HEAP_POOLS = new ArrayList<>();
+
+    static {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid())
+                HEAP_POOLS.add(pool);
+        }
+    }
+
+    public enum Mode {
+        NORMAL,
+        SHED_STATUS,
+        PAUSE_LOGINS,
+        REFUSE_ACCEPTS
+    }
+
+    private final double[] thresholds;
+    private final double hysteresis;
+
+    private volatile Mode mode = Mode.NORMAL;
+    private volatile double heapUsage;
+    private volatile double directUsage;
+
+    private final LongAdder transitions = new LongAdder();
+    private final LongAdder shedStatus = new LongAdder();
+    private final LongAdder pausedLogins = new LongAdder();
+    private final LongAdder refusedAccepts = new LongAdder();
+
+    /**
+     * @param shedStatus Usage percent to stop answering status requests
+     * @param pauseLogins Usage percent to reject new logins
+     * @param refuseAccepts Usage percent to close new connections right after accept
+     * @param hysteresis Percent below threshold to leave a mode
+     */
+    public MemoryGuard(double shedStatus, double pauseLogins, double refuseAccepts, double hysteresis) {
+        this.thresholds = new double[] {0, shedStatus, pauseLogins, refuseAccepts};
+        this.hysteresis = hysteresis;
+    }
+
+    /**
+     * Sample memory usage and update mode
+     */
+    public void check() {
+        heapUsage = percent(getHeapAfterGc(), Runtime.getRuntime().maxMemory());
+        directUsage = percent(PlatformDependent.usedDirectMemory(), PlatformDependent.maxDirectMemory());
+
+        double usage = Math.max(heapUsage, directUsage);
+        Mode[] modes = Mode.values();
+        int current = mode.ordinal();
+        int next = current;
+
+        while (next < modes.length - 1 && usage >= thresholds[next + 1]) {
+            next++;
+        }
+
+        while (next > 0 && next <= current && usage < thresholds[next] - hysteresis) {
+            next--;
+        }
+
+        if (next == current)
+            return;
+
+        Mode previous = mode;
+        mode = modes[next];
+        transitions.increment();
+
+        if (next > current) {
+            Log.warning("Memory usage is high (heap %.1f%%, direct %.1f%%), mode changed from %s to %s",
+                    heapUsage, directUsage, previous, mode);
+        } else {
+            Log.info("Memory usage decreased (heap %.1f%%, direct %.1f%%), mode changed from %s to %s",
+                    heapUsage, directUsage, previous, mode);
+        }
+    }
+
+    /**
+     * @return Heap occupied after the last collection of each heap pool, 0 before the first collection
+     */
+    public static long getHeapAfterGc() {
+        long used = 0;
+
+        for (MemoryPoolMXBean pool : HEAP_POOLS) {
+            MemoryUsage usage = pool.getCollectionUsage();
+            // Pools without collection usage aren't collected, all their content is live
+            used += usage != null ? usage.getUsed() : pool.getUsage().getUsed();
+        }
+
+        return used;
+    }
+
+    private static double percent(long used, long max) {
+        // Netty returns -1 if direct memory is not tracked
+        if (used < 0 || max <= 0)
+            return 0;
+
+        return used * 100.0 / max;
+    }
+
+    public boolean shouldShedStatus() {
+        if (mode.compareTo(Mode.SHED_STATUS) < 0)
+            return false;
+
+        shedStatus.increment();
+        return true;
+    }
+
+    public boolean shouldPauseLogins() {
+        if (mode.compareTo(Mode.PAUSE_LOGINS) < 0)
+            return false;
+
+        pausedLogins.increment();
+        return true;
+    }
+
+    public boolean shouldRefuseAccepts() {
+        if (mode.compareTo(Mode.REFUSE_ACCEPTS) < 0)
+            return false;
+
+        refusedAccepts.increment();
+        return true;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * @return Heap usage percent after garbage collection from the last sample
+     */
+    public double getHeapUsage() {
+        return heapUsage;
+    }
+
+    /**
+     * @return Direct memory usage percent from the last sample
+     */
+    public double getDirectUsage() {
+        return directUsage;
+    }
+
+    public long getTransitions() {
+        return transitions.sum();
+    }
+
+    public long getShedStatus() {
+        return shedStatus.sum();
+    }
+
+    public long getPausedLogins() {
+        return pausedLogins.sum();
+    }
+
+    public long getRefusedAccepts() {
+        return refusedAccepts.sum();
+    }
+}
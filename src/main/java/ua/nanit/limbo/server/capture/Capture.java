@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.server.capture;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Inbound traffic of one connection read from capture file
+ */
+public final class Capture {
+
+    private final Path file;
+    private final String remoteAddress;
+    private final long startMillis;
+    private final List<Record> records;
+    private final long closeMicros;
+
+    private Capture(Path file, String remoteAddress, long startMillis, List<Record> records, long closeMicros) {
+        this.file = file;
+        this.remoteAddress = remoteAddress;
+        this.startMillis = startMillis;
+        this.records = records;
+        this.closeMicros = closeMicros;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public String getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    /**
+     * @return Time of connection as epoch milliseconds
+     */
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    public List<Record> getRecords() {
+        return records;
+    }
+
+    /**
+     * @return Microseconds from connection to its closing
+     */
+    public long getCloseMicros() {
+        return closeMicros;
+    }
+
+    public static Capture read(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != CaptureFormat.MAGIC)
+                throw new IOException(file + " is not a capture file");
+
+            byte version = in.readByte();
+
+            if (version != CaptureFormat.VERSION)
+                throw new IOException("Unsupported capture format version " + version + " in " + file);
+
+            long startMillis = in.readLong();
+            byte[] address = new byte[in.readUnsignedShort()];
+            in.readFully(address);
+
+            List<Record> records = new ArrayList<>();
+            long time = 0;
+
+            while (true) {
+                long delta;
+                int length;
+
+                try {
+                    delta = readVarLong(in);
+                    length = (int) readVarLong(in);
+                } catch (EOFException e) {
+                    // File of server which didn't close it, ends at the last record
+                    break;
+                }
+
+                time += delta;
+
+                if (length == 0)
+                    break;
+
+                byte[] data = new byte[length];
+                in.readFully(data);
+                records.add(new Record(time, data));
+            }
+
+            return new Capture(file, new String(address, StandardCharsets.UTF_8), startMillis,
+                    Collections.unmodifiableList(records), time);
+        }
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+
+            if ((b & 0x80) == 0)
+                return value;
+        }
+
+        throw new IOException("VarLong is too big");
+    }
+
+    public static final class Record {
+
+        private final long micros;
+        private final byte[] data;
+
+        private Record(long micros, byte[] data) {
+            this.micros = micros;
+            this.data = data;
+        }
+
+        /**
+         * @return Microseconds from connection to reading of this data
+         */
+        public long getMicros() {
+            return micros;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+    }
+}
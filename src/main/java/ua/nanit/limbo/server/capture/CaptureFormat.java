@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.server.capture;
+
+/**
+ * Layout of capture files.
+ * <p>
+ * Header: magic int, format version byte, capture start as epoch milliseconds,
+ * remote address as unsigned short length and UTF-8 bytes.
+ * <p>
+ * Records: VarLong microseconds since previous record, VarInt length and data read from socket.
+ * Record with zero length marks closing of connection. Unused tail of file is filled with zeros,
+ * so it's read as the same marker if server stopped before closing the file.
+ */
+public final class CaptureFormat {
+
+    public static final int MAGIC = 0x4E4C4350;
+    public static final byte VERSION = 1;
+    public static final String EXTENSION = ".nlcap";
+
+    private CaptureFormat() {
+    }
+}
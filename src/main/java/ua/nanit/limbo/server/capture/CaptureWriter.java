@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.server.capture;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only writer of one capture file. File is mapped by regions, so data is copied to page cache
+ * without a system call for each record. Not thread safe, used from the capture writer thread only.
+ */
+public final class CaptureWriter {
+
+    private static final int REGION_SIZE = 256 * 1024;
+    // Close marker is the longest VarLong and zero length
+    private static final int CLOSE_RECORD_SIZE = 11;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final long maxSize;
+    private MappedByteBuffer region;
+    private long regionOffset;
+    private long lastRecord;
+    private boolean full;
+    private boolean closed;
+
+    /**
+     * @param startMillis Time of connection as epoch milliseconds
+     * @param startNanos Time of connection from {@link System#nanoTime()}
+     */
+    public CaptureWriter(Path file, String remoteAddress, long maxSize, long startMillis, long startNanos)
+            throws IOException {
+        this.file = file;
+        this.maxSize = maxSize;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.lastRecord = startNanos;
+
+        byte[] address = remoteAddress.getBytes(StandardCharsets.UTF_8);
+        int addressLength = Math.min(address.length, 0xFFFF);
+
+        try {
+            map(0, 15 + addressLength);
+            region.putInt(CaptureFormat.MAGIC);
+            region.put(CaptureFormat.VERSION);
+            region.putLong(startMillis);
+            region.putShort((short) addressLength);
+            region.put(address, 0, addressLength);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * @return Bytes written so far
+     */
+    public long getSize() {
+        return regionOffset + region.position();
+    }
+
+    /**
+     * @return True if file reached maximum size and later data is dropped
+     */
+    public boolean isFull() {
+        return full;
+    }
+
+    /**
+     * Append data read from socket
+     * @param nanos Time of reading from {@link System#nanoTime()}
+     */
+    public void write(long nanos, byte[] data) throws IOException {
+        int length = data.length;
+
+        if (closed || full || length == 0)
+            return;
+
+        int size = 10 + 5 + length;
+
+        if (getSize() + size + CLOSE_RECORD_SIZE > maxSize) {
+            full = true;
+            return;
+        }
+
+        ensure(size);
+        writeVarLong(elapsedMicros(nanos));
+        writeVarInt(length);
+        region.put(data);
+    }
+
+    /**
+     * Drop later data, e.g. when it couldn't be queued for writing
+     */
+    public void markFull() {
+        full = true;
+    }
+
+    /**
+     * Write close marker and cut unused tail of file
+     * @param nanos Time of closing from {@link System#nanoTime()}
+     */
+    public void close(long nanos) throws IOException {
+        if (closed)
+            return;
+
+        closed = true;
+
+        try {
+            ensure(CLOSE_RECORD_SIZE);
+            writeVarLong(elapsedMicros(nanos));
+            writeVarInt(0);
+            channel.truncate(getSize());
+        } finally {
+            channel.close();
+        }
+    }
+
+    private long elapsedMicros(long now) {
+        long elapsed = TimeUnit.NANOSECONDS.toMicros(now - lastRecord);
+        // Keep remainder, so rounding doesn't accumulate over many records
+        lastRecord = now - (now - lastRecord) % 1000;
+        return elapsed;
+    }
+
+    private void ensure(int size) throws IOException {
+        if (region.remaining() < size)
+            map(getSize(), size);
+    }
+
+    private void map(long offset, int size) throws IOException {
+        regionOffset = offset;
+        region = channel.map(FileChannel.MapMode.READ_WRITE, offset, Math.max(REGION_SIZE, size));
+    }
+
+    private void writeVarInt(int value) {
+        while ((value & ~0x7F) != 0) {
+            region.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        region.put((byte) value);
+    }
+
+    private void writeVarLong(long value) {
+        while ((value & ~0x7FL) != 0) {
+            region.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        region.put((byte) value);
+    }
+}
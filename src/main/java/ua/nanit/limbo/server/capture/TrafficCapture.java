@@ -0,0 +1,296 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.server.capture;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import ua.nanit.limbo.server.Log;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides which connections are captured and writes their files.
+ * Can be switched on and off at runtime, so capture is enabled only while an incident lasts.
+ * <p>
+ * Event loops only copy read data and queue it. Files are created, mapped and written by
+ * a single writer thread. Number of open files and bytes waiting in queue are limited,
+ * connections over the limits are not captured or their files are cut
+ */
+public final class TrafficCapture {
+
+    private static final long MAX_PENDING_BYTES = 64 * 1024 * 1024;
+
+    private final Path directory;
+    private final long maxFileSize;
+    private final int maxOpenFiles;
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicInteger openFiles = new AtomicInteger();
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private final LongAdder files = new LongAdder();
+    private final LongAdder truncated = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+
+    private volatile boolean enabled;
+    private volatile InetAddress filter;
+    private ExecutorService writer;
+
+    public TrafficCapture(Path directory, long maxFileSize, int maxOpenFiles, boolean enabled) {
+        this.directory = directory;
+        this.maxFileSize = maxFileSize;
+        this.maxOpenFiles = maxOpenFiles;
+        this.enabled = enabled;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return Only captured address, or null if all connections are captured
+     */
+    public InetAddress getFilter() {
+        return filter;
+    }
+
+    /**
+     * @return Number of files created since start
+     */
+    public long getFiles() {
+        return files.sum();
+    }
+
+    /**
+     * @return Number of files which reached maximum size or lost data which couldn't be queued
+     */
+    public long getTruncated() {
+        return truncated.sum();
+    }
+
+    /**
+     * @return Number of connections not captured because too many files were open
+     */
+    public long getSkipped() {
+        return skipped.sum();
+    }
+
+    public int getOpenFiles() {
+        return openFiles.get();
+    }
+
+    /**
+     * Capture new connections
+     * @param filter Address to capture only, or null for all connections
+     */
+    public void enable(InetAddress filter) {
+        this.filter = filter;
+        this.enabled = true;
+    }
+
+    /**
+     * Stop capturing new connections. Files of already captured ones are written until they close
+     */
+    public void disable() {
+        this.enabled = false;
+    }
+
+    public boolean shouldCapture(SocketAddress address) {
+        if (!enabled)
+            return false;
+
+        InetAddress filter = this.filter;
+
+        return filter == null || (address instanceof InetSocketAddress
+                && filter.equals(((InetSocketAddress) address).getAddress()));
+    }
+
+    /**
+     * Start capture of connection if it matches filter and limit of open files allows it
+     * @param address Real address of connection, known after PROXY header
+     * @param startMillis Time of connection as epoch milliseconds
+     * @param startNanos Time of connection from {@link System#nanoTime()}
+     * @return Session to pass read data to, or null if connection is not captured
+     */
+    public Session start(SocketAddress address, long startMillis, long startNanos) {
+        if (!shouldCapture(address))
+            return null;
+
+        if (openFiles.incrementAndGet() > maxOpenFiles) {
+            openFiles.decrementAndGet();
+            skipped.increment();
+            return null;
+        }
+
+        Session session = new Session();
+        execute(() -> session.open(address, startMillis, startNanos));
+        return session;
+    }
+
+    /**
+     * Write queued data and close files of connections which are already closed
+     */
+    public void stop() {
+        ExecutorService writer;
+
+        synchronized (this) {
+            writer = this.writer;
+        }
+
+        if (writer == null)
+            return;
+
+        writer.shutdown();
+
+        try {
+            writer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void execute(Runnable task) {
+        try {
+            getWriter().execute(task);
+        } catch (RejectedExecutionException e) {
+            // Server is stopping, file without close marker still ends at its last record
+        }
+    }
+
+    private synchronized ExecutorService getWriter() {
+        if (writer == null) {
+            writer = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "NanoLimbo capture writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return writer;
+    }
+
+    private static String fileName(SocketAddress address) {
+        if (address instanceof InetSocketAddress) {
+            InetSocketAddress inet = (InetSocketAddress) address;
+            String host = inet.getAddress() != null ? inet.getAddress().getHostAddress() : inet.getHostString();
+            return host.replace(':', '_') + "_" + inet.getPort();
+        }
+
+        return "local";
+    }
+
+    /**
+     * Capture of one connection. Methods are called from its event loop,
+     * file is touched only by writer thread
+     */
+    public final class Session {
+
+        private CaptureWriter file;
+        private boolean stopped;
+
+        private Session() {
+        }
+
+        /**
+         * Queue readable bytes of buffer without changing its indexes
+         */
+        public void write(ByteBuf buf) {
+            int length = buf.readableBytes();
+
+            if (stopped || length == 0)
+                return;
+
+            if (pendingBytes.addAndGet(length) > MAX_PENDING_BYTES) {
+                pendingBytes.addAndGet(-length);
+                // Gap in data would make replay meaningless, so the rest of connection is dropped
+                stopped = true;
+                execute(() -> {
+                    if (file != null)
+                        file.markFull();
+                });
+                return;
+            }
+
+            long nanos = System.nanoTime();
+            byte[] data = ByteBufUtil.getBytes(buf);
+
+            execute(() -> {
+                pendingBytes.addAndGet(-length);
+
+                if (file == null)
+                    return;
+
+                try {
+                    file.write(nanos, data);
+                } catch (IOException e) {
+                    Log.error("Cannot write capture file %s: %s", file.getFile(), e.getMessage());
+                    file.markFull();
+                }
+            });
+        }
+
+        public void close() {
+            long nanos = System.nanoTime();
+
+            execute(() -> {
+                openFiles.decrementAndGet();
+
+                if (file == null)
+                    return;
+
+                try {
+                    file.close(nanos);
+                } catch (IOException e) {
+                    Log.error("Cannot close capture file %s: %s", file.getFile(), e.getMessage());
+                }
+
+                if (file.isFull())
+                    truncated.increment();
+            });
+        }
+
+        private void open(SocketAddress address, long startMillis, long startNanos) {
+            String name = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date(startMillis))
+                    + "-" + fileName(address) + "-" + sequence.incrementAndGet() + CaptureFormat.EXTENSION;
+
+            try {
+                Files.createDirectories(directory);
+                file = new CaptureWriter(directory.resolve(name), String.valueOf(address), maxFileSize,
+                        startMillis, startNanos);
+                files.increment();
+            } catch (IOException e) {
+                Log.error("Cannot create capture file for %s: %s", address, e.getMessage());
+            }
+        }
+    }
+}
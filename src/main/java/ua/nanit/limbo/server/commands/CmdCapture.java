@@ -0,0 +1,78 @@
+package ua.nanit.limbo.server.commands;
+
+import ua.nanit.limbo.server.Command;
+import ua.nanit.limbo.server.LimboServer;
+import ua.nanit.limbo.server.Log;
+import ua.nanit.limbo.server.capture.TrafficCapture;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+public class CmdCapture implements Command {
+
+    private final LimboServer server;
+
+    public CmdCapture(LimboServer server) {
+        this.server = server;
+    }
+
+    @Override
+    public void execute(String[] args) {
+        TrafficCapture capture = server.getTrafficCapture();
+
+        if (args.length > 0 && args[0].equalsIgnoreCase("on")) {
+            InetAddress filter = null;
+
+            if (args.length > 1) {
+                try {
+                    filter = InetAddress.getByName(args[1]);
+                } catch (UnknownHostException e) {
+                    Log.info("Usage: capture on [ip]");
+                    return;
+                }
+            }
+
+            capture.enable(filter);
+            printTarget(capture);
+            return;
+        }
+
+        if (args.length > 0 && args[0].equalsIgnoreCase("off")) {
+            capture.disable();
+            Log.info("Capture stopped, open files are written until their connections close");
+            return;
+        }
+
+        if (args.length > 0) {
+            Log.info("Usage: capture [on [ip] | off]");
+            return;
+        }
+
+        execute();
+    }
+
+    @Override
+    public void execute() {
+        TrafficCapture capture = server.getTrafficCapture();
+
+        if (capture.isEnabled()) {
+            printTarget(capture);
+        } else {
+            Log.info("Capture is off");
+        }
+
+        Log.info("Files: %d open, %d created, %d cut, %d connections skipped over open files limit",
+                capture.getOpenFiles(), capture.getFiles(), capture.getTruncated(), capture.getSkipped());
+    }
+
+    private static void printTarget(TrafficCapture capture) {
+        InetAddress filter = capture.getFilter();
+        Log.info("Capturing %s to %s", filter != null ? "connections from " + filter.getHostAddress()
+                : "all new connections", capture.getDirectory().toAbsolutePath().normalize());
+    }
+
+    @Override
+    public String description() {
+        return "Display or switch capture of inbound traffic for replay. Usage: capture [on [ip] | off]";
+    }
+}
@@ -1,24 +1,234 @@
 package ua.nanit.limbo.server.commands;
 
+import ua.nanit.limbo.connection.ClientConnection;
+import ua.nanit.limbo.connection.ConnectionStats;
+import ua.nanit.limbo.connection.DisconnectReason;
+import ua.nanit.limbo.connection.JoinPhase;
+import ua.nanit.limbo.connection.JoinTimings;
+import ua.nanit.limbo.connection.StatusResponseCache;
+import ua.nanit.limbo.protocol.registry.State;
+import ua.nanit.limbo.protocol.registry.Version;
+import ua.nanit.limbo.server.AdmissionController;
 import ua.nanit.limbo.server.Command;
 import ua.nanit.limbo.server.LimboServer;
+import ua.nanit.limbo.server.LoginQueue;
 import ua.nanit.limbo.server.Log;
+import ua.nanit.limbo.server.data.InfoForwarding;
+import ua.nanit.limbo.util.Histogram;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 public class CmdConn implements Command {
 
+    private static final int TOP_LATENCY_LIMIT = 10;
+    private static final int SLOW_JOINS_LIMIT = 10;
+    private static final int TOP_VERSIONS_LIMIT = 10;
+    private static final int TOP_ADDRESSES_LIMIT = 5;
+    private static final int OLDEST_SESSIONS_LIMIT = 5;
+
     private final LimboServer server;
 
     public CmdConn(LimboServer server) {
         this.server = server;
     }
 
+    @Override
+    public void execute(String[] args) {
+        if (args.length > 0 && args[0].equalsIgnoreCase("slow")) {
+            int limit = SLOW_JOINS_LIMIT;
+
+            if (args.length > 1) {
+                try {
+                    limit = Integer.parseInt(args[1]);
+                } catch (NumberFormatException e) {
+                    limit = 0;
+                }
+
+                if (limit <= 0) {
+                    Log.info("Usage: conn slow [count]");
+                    return;
+                }
+            }
+
+            printSlowJoins(limit);
+            return;
+        }
+
+        execute();
+    }
+
     @Override
     public void execute() {
         Log.info("Connections: %d", server.getConnections().getCount());
+        printBreakdown();
+
+        AdmissionController admission = server.getAdmission();
+        Log.info("Slots: %d in use, %d reserved, %s max, %d rejected", admission.getInUse(),
+                admission.getReserved(), admission.getCapacity() > 0 ? admission.getCapacity() : "unlimited",
+                admission.getRejected());
+
+        LoginQueue loginQueue = server.getLoginQueue();
+
+        if (loginQueue != null) {
+            Log.info("Login queue: %d waiting, %d queued, %d timed out", loginQueue.getDepth(),
+                    loginQueue.getQueued(), loginQueue.getTimedOut());
+        }
+
+        StatusResponseCache statusCache = server.getStatusCache();
+        Log.info("Status responses: %d from cache, %d encoded, %d rate limited", statusCache.getHits(),
+                statusCache.getMisses(), server.getStatusLimiter() != null
+                        ? server.getStatusLimiter().getRejectedByRate() : 0);
+
+        for (DisconnectReason reason : DisconnectReason.values()) {
+            if (reason.getCount() > 0)
+                Log.info("Disconnected at login: %s - %d", reason, reason.getCount());
+        }
+
+        ConnectionStats stats = server.getConnectionStats();
+        Log.info("Closed by deadlines: %d read, %d login, %d configuration, %d play, %d not reading",
+                stats.getReadTimeouts(), stats.getStateTimeouts(State.LOGIN),
+                stats.getStateTimeouts(State.CONFIGURATION), stats.getStateTimeouts(State.PLAY),
+                stats.getUnwritableEvictions());
+        Log.info("Skipped optional writes: %d", stats.getSkippedWrites());
+
+        Histogram rtt = server.getKeepAliveScheduler().getRttHistogram();
+
+        if (rtt.getCount() == 0)
+            return;
+
+        Log.info("Keep alive RTT: p50 %.1f ms, p99 %.1f ms, p999 %.1f ms, max %.1f ms (%d samples)",
+                millis(rtt.getPercentile(50)), millis(rtt.getPercentile(99)),
+                millis(rtt.getPercentile(99.9)), millis(rtt.getMax()), rtt.getCount());
+
+        List<ClientConnection> measured = new ArrayList<>();
+
+        for (ClientConnection connection : server.getConnections().getAllConnections()) {
+            if (connection.getSmoothedRtt() >= 0)
+                measured.add(connection);
+        }
+
+        if (measured.isEmpty())
+            return;
+
+        measured.sort(Comparator.comparingLong(ClientConnection::getSmoothedRtt).reversed());
+
+        Log.info("Highest latency:");
+
+        for (ClientConnection connection : measured.subList(0, Math.min(TOP_LATENCY_LIMIT, measured.size()))) {
+            Log.info("  %s (%s): %.1f ms, last %.1f ms", connection.getUsername(), connection.getAddress(),
+                    millis(connection.getSmoothedRtt()), millis(connection.getLastRtt()));
+        }
+    }
+
+    /**
+     * Group players by version, forwarding mode and address. Runs on console thread over
+     * concurrent map of players, so event loops are never paused for it
+     */
+    private void printBreakdown() {
+        ConnectionStats stats = server.getConnectionStats();
+        StringBuilder states = new StringBuilder();
+
+        for (State state : State.values()) {
+            states.append(states.length() > 0 ? ", " : "").append(state.name().toLowerCase())
+                    .append(' ').append(stats.getActive(state));
+        }
+
+        Log.info("By state: %s", states);
+
+        Map<Version, Integer> versions = new EnumMap<>(Version.class);
+        Map<InfoForwarding.Type, Integer> forwarding = new EnumMap<>(InfoForwarding.Type.class);
+        Map<String, Integer> addresses = new HashMap<>();
+        List<ClientConnection> players = new ArrayList<>(server.getConnections().getAllConnections());
+
+        if (players.isEmpty())
+            return;
+
+        for (ClientConnection connection : players) {
+            versions.merge(connection.getClientVersion(), 1, Integer::sum);
+            forwarding.merge(connection.getInfoForwarding().getType(), 1, Integer::sum);
+            addresses.merge(host(connection.getAddress()), 1, Integer::sum);
+        }
+
+        Log.info("Players by version: %s", top(versions, TOP_VERSIONS_LIMIT));
+        Log.info("Players by forwarding: %s", top(forwarding, forwarding.size()));
+        Log.info("Top addresses: %s", top(addresses, TOP_ADDRESSES_LIMIT));
+
+        players.sort(Comparator.comparingLong(ClientConnection::getCreatedAt));
+        long now = System.nanoTime();
+
+        Log.info("Oldest sessions:");
+
+        for (ClientConnection connection : players.subList(0, Math.min(OLDEST_SESSIONS_LIMIT, players.size()))) {
+            long seconds = TimeUnit.NANOSECONDS.toSeconds(now - connection.getCreatedAt());
+            Log.info("  %s (%s): %d:%02d:%02d", connection.getUsername(), connection.getAddress(),
+                    seconds / 3600, seconds / 60 % 60, seconds % 60);
+        }
+    }
+
+    /**
+     * @return Keys with the biggest counts first, separated by comma
+     */
+    private static <K> String top(Map<K, Integer> counts, int limit) {
+        List<Map.Entry<K, Integer>> entries = new ArrayList<>(counts.entrySet());
+        entries.sort(Map.Entry.<K, Integer>comparingByValue().reversed());
+        StringBuilder out = new StringBuilder();
+
+        for (Map.Entry<K, Integer> entry : entries) {
+            if (limit-- == 0)
+                break;
+
+            out.append(out.length() > 0 ? ", " : "").append(entry.getKey()).append(' ').append(entry.getValue());
+        }
+
+        return out.toString();
+    }
+
+    private static String host(SocketAddress address) {
+        if (address instanceof InetSocketAddress && ((InetSocketAddress) address).getAddress() != null)
+            return ((InetSocketAddress) address).getAddress().getHostAddress();
+
+        return String.valueOf(address);
+    }
+
+    private void printSlowJoins(int limit) {
+        List<JoinTimings.Join> joins = server.getConnectionStats().getJoinTimings().getRecent();
+
+        if (joins.isEmpty()) {
+            Log.info("No finished joins yet");
+            return;
+        }
+
+        joins.sort(Comparator.comparingLong(JoinTimings.Join::getTotal).reversed());
+
+        Log.info("Slowest of %d recent joins (ms):", joins.size());
+
+        for (JoinTimings.Join join : joins.subList(0, Math.min(limit, joins.size()))) {
+            StringBuilder phases = new StringBuilder();
+
+            for (JoinPhase phase : JoinPhase.values()) {
+                phases.append(", ").append(phase.name().toLowerCase()).append(' ')
+                        .append(String.format("%.1f", millis(join.getPhase(phase))));
+            }
+
+            Log.info("  %s (%s): total %.1f%s", join.getUsername(), join.getVersion(),
+                    millis(join.getTotal()), phases);
+        }
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
     }
 
     @Override
     public String description() {
-        return "Display connections count";
+        return "Display connections by state, version, forwarding and address, and latency. Use \"conn slow [count]\" for slowest recent joins";
     }
 }
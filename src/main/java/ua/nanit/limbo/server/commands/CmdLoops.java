@@ -0,0 +1,44 @@
+package ua.nanit.limbo.server.commands;
+
+import ua.nanit.limbo.server.Command;
+import ua.nanit.limbo.server.EventLoopMonitor;
+import ua.nanit.limbo.server.LimboServer;
+import ua.nanit.limbo.server.Log;
+import ua.nanit.limbo.util.Histogram;
+
+public class CmdLoops implements Command {
+
+    private final LimboServer server;
+
+    public CmdLoops(LimboServer server) {
+        this.server = server;
+    }
+
+    @Override
+    public void execute() {
+        EventLoopMonitor monitor = server.getEventLoopMonitor();
+
+        if (monitor == null) {
+            Log.info("Event loop monitor is disabled");
+            return;
+        }
+
+        Log.info("Event loop lag:");
+
+        for (EventLoopMonitor.Probe probe : monitor.getProbes()) {
+            Histogram lag = probe.getLag();
+            Log.info("  %s: last %.1f ms, p50 %.1f ms, p99 %.1f ms, max %.1f ms, %d tasks pending", probe.getName(),
+                    millis(probe.getLastLag()), millis(lag.getPercentile(50)), millis(lag.getPercentile(99)),
+                    millis(lag.getMax()), probe.getPendingTasks());
+        }
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+
+    @Override
+    public String description() {
+        return "Display scheduling lag of event loops";
+    }
+}
@@ -1,28 +1,185 @@
 package ua.nanit.limbo.server.commands;
 
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocatorMetric;
+import io.netty.util.internal.PlatformDependent;
+import net.kyori.adventure.nbt.BinaryTag;
+import net.kyori.adventure.nbt.BinaryTagIO;
+import net.kyori.adventure.nbt.CompoundBinaryTag;
+import net.kyori.adventure.nbt.ListBinaryTag;
+import ua.nanit.limbo.connection.ConnectionStats;
+import ua.nanit.limbo.connection.PacketSnapshots;
+import ua.nanit.limbo.protocol.PacketSnapshot;
+import ua.nanit.limbo.protocol.registry.State;
 import ua.nanit.limbo.server.Command;
+import ua.nanit.limbo.server.LimboServer;
 import ua.nanit.limbo.server.Log;
+import ua.nanit.limbo.server.MemoryGuard;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
 
 public class CmdMem implements Command {
 
+    private static final long KB = 1024;
+    private static final long MB = 1024 * 1024;
+
+    private final LimboServer server;
+
+    public CmdMem(LimboServer server) {
+        this.server = server;
+    }
+
     @Override
     public void execute() {
         Runtime runtime = Runtime.getRuntime();
-        long mb = 1024 * 1024;
-        long used = (runtime.totalMemory() - runtime.freeMemory()) / mb;
-        long total = runtime.totalMemory() / mb;
-        long free = runtime.freeMemory() / mb;
-        long max = runtime.maxMemory() / mb;
+        long used = (runtime.totalMemory() - runtime.freeMemory()) / MB;
+        long total = runtime.totalMemory() / MB;
+        long free = runtime.freeMemory() / MB;
+        long max = runtime.maxMemory() / MB;
 
         Log.info("Memory usage:");
-        Log.info("Used: %d MB", used);
+        Log.info("Used: %d MB, %d MB after last GC", used, MemoryGuard.getHeapAfterGc() / MB);
         Log.info("Total: %d MB", total);
         Log.info("Free: %d MB", free);
         Log.info("Max: %d MB", max);
+
+        printSnapshots();
+        printCodecs();
+        long direct = printNetty();
+        printPerConnection(direct);
+
+        MemoryGuard guard = server.getMemoryGuard();
+
+        if (guard != null) {
+            Log.info("Guard mode: %s (heap after GC %.1f%%, direct %.1f%%)", guard.getMode(),
+                    guard.getHeapUsage(), guard.getDirectUsage());
+            Log.info("Guard rejected: %d status, %d logins, %d connections", guard.getShedStatus(),
+                    guard.getPausedLogins(), guard.getRefusedAccepts());
+        }
+    }
+
+    private void printSnapshots() {
+        List<PacketSnapshot> snapshots = PacketSnapshots.getAll();
+        long encoded = 0;
+        long stored = 0;
+
+        for (PacketSnapshot snapshot : snapshots) {
+            encoded += snapshot.getEncodedBytes();
+            stored += snapshot.getStoredBytes();
+        }
+
+        Log.info("Packet snapshots: %d packets, %d KB for all versions, %d KB stored after deduplication",
+                snapshots.size(), encoded / KB, stored / KB);
+    }
+
+    private void printCodecs() {
+        Map<String, CompoundBinaryTag> codecs = server.getDimensionRegistry().getCodecs();
+        long tags = 0;
+        long bytes = 0;
+
+        for (CompoundBinaryTag codec : codecs.values()) {
+            tags += countTags(codec);
+            bytes += encodedSize(codec);
+        }
+
+        Log.info("Codec trees: %d loaded, %d tags, %d KB in NBT", codecs.size(), tags, bytes / KB);
+    }
+
+    /**
+     * @return Direct memory used by Netty
+     */
+    private long printNetty() {
+        long direct = PlatformDependent.usedDirectMemory();
+        ByteBufAllocator allocator = ByteBufAllocator.DEFAULT;
+
+        if (allocator instanceof PooledByteBufAllocator) {
+            // Arenas are locked only while chunk lists are summed, event loops mostly allocate from thread caches
+            PooledByteBufAllocatorMetric metric = ((PooledByteBufAllocator) allocator).metric();
+            Log.info("Netty pooled: %d MB heap in %d arenas, %d MB direct in %d arenas, %d KB chunks, %d thread caches",
+                    metric.usedHeapMemory() / MB, metric.numHeapArenas(), metric.usedDirectMemory() / MB,
+                    metric.numDirectArenas(), metric.chunkSize() / KB, metric.numThreadLocalCaches());
+
+            if (direct < 0)
+                direct = metric.usedDirectMemory();
+        }
+
+        if (direct >= 0)
+            Log.info("Netty direct: %d MB of %d MB", direct / MB, PlatformDependent.maxDirectMemory() / MB);
+
+        return Math.max(0, direct);
+    }
+
+    private void printPerConnection(long direct) {
+        ConnectionStats stats = server.getConnectionStats();
+        long connections = 0;
+
+        for (State state : State.values()) {
+            connections += stats.getActive(state);
+        }
+
+        long liveHeap = MemoryGuard.getHeapAfterGc();
+
+        if (connections == 0 || liveHeap == 0) {
+            Log.info("Per connection: unknown until there are connections and garbage collection happened");
+            return;
+        }
+
+        // Shared data is included, so estimate approaches real cost as number of connections grows
+        Log.info("Per connection: at most %d KB (%d MB heap after last GC and direct memory, %d connections)",
+                (liveHeap + direct) / connections / KB, (liveHeap + direct) / MB, connections);
+    }
+
+    private static long countTags(BinaryTag tag) {
+        long count = 1;
+
+        if (tag instanceof CompoundBinaryTag) {
+            CompoundBinaryTag compound = (CompoundBinaryTag) tag;
+
+            for (String key : compound.keySet()) {
+                count += countTags(compound.get(key));
+            }
+        } else if (tag instanceof ListBinaryTag) {
+            for (BinaryTag element : (ListBinaryTag) tag) {
+                count += countTags(element);
+            }
+        }
+
+        return count;
+    }
+
+    private static long encodedSize(CompoundBinaryTag tag) {
+        CountingStream stream = new CountingStream();
+
+        try {
+            BinaryTagIO.writer().write(tag, stream);
+        } catch (IOException e) {
+            return 0;
+        }
+
+        return stream.count;
     }
 
     @Override
     public String description() {
-        return "Display memory usage";
+        return "Display memory usage and footprint of snapshots, codecs, Netty buffers and connections";
+    }
+
+    private static final class CountingStream extends OutputStream {
+
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
     }
 }
@@ -0,0 +1,96 @@
+package ua.nanit.limbo.server.commands;
+
+import ua.nanit.limbo.connection.PacketCounters;
+import ua.nanit.limbo.protocol.registry.State;
+import ua.nanit.limbo.server.Command;
+import ua.nanit.limbo.server.LimboServer;
+import ua.nanit.limbo.server.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class CmdPackets implements Command {
+
+    private static final int DEFAULT_LIMIT = 20;
+
+    private final LimboServer server;
+
+    public CmdPackets(LimboServer server) {
+        this.server = server;
+    }
+
+    @Override
+    public void execute() {
+        execute(new String[0]);
+    }
+
+    @Override
+    public void execute(String[] args) {
+        int limit = DEFAULT_LIMIT;
+
+        if (args.length > 0) {
+            try {
+                limit = Integer.parseInt(args[0]);
+            } catch (NumberFormatException e) {
+                Log.info("Usage: packets [count]");
+                return;
+            }
+        }
+
+        PacketCounters counters = server.getConnectionStats().getPacketCounters();
+        List<Entry> entries = new ArrayList<>();
+
+        for (PacketCounters.Direction direction : PacketCounters.Direction.values()) {
+            for (State state : State.values()) {
+                for (int slot = 0; slot <= PacketCounters.OTHER_SLOT; slot++) {
+                    long packets = counters.getPackets(direction, state, slot);
+
+                    if (packets > 0) {
+                        long unknown = direction == PacketCounters.Direction.IN ? counters.getUnknown(state, slot) : 0;
+                        entries.add(new Entry(direction, state, slot, packets,
+                                counters.getBytes(direction, state, slot), unknown));
+                    }
+                }
+            }
+        }
+
+        if (entries.isEmpty()) {
+            Log.info("No packets yet");
+            return;
+        }
+
+        entries.sort((a, b) -> Long.compare(b.packets, a.packets));
+
+        Log.info("Packets by type (%d of %d):", Math.min(limit, entries.size()), entries.size());
+
+        for (Entry entry : entries.subList(0, Math.min(limit, entries.size()))) {
+            Log.info("  %-3s %-13s %-5s %d packets, %d bytes%s", entry.direction, entry.state,
+                    entry.slot == PacketCounters.OTHER_SLOT ? "other" : String.format("0x%02X", entry.slot),
+                    entry.packets, entry.bytes, entry.unknown > 0 ? ", " + entry.unknown + " unknown" : "");
+        }
+    }
+
+    @Override
+    public String description() {
+        return "Display most frequent packets by direction, state and id. Usage: packets [count]";
+    }
+
+    private static final class Entry {
+
+        private final PacketCounters.Direction direction;
+        private final State state;
+        private final int slot;
+        private final long packets;
+        private final long bytes;
+        private final long unknown;
+
+        private Entry(PacketCounters.Direction direction, State state, int slot, long packets, long bytes, long unknown) {
+            this.direction = direction;
+            this.state = state;
+            this.slot = slot;
+            this.packets = packets;
+            this.bytes = bytes;
+            this.unknown = unknown;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.server.data;
+
+import io.netty.channel.unix.DomainSocketAddress;
+
+import java.net.SocketAddress;
+
+/**
+ * Address the server listens on together with its own network settings.
+ * Thread counts equal to 0 mean the listener uses shared event loop groups
+ */
+public class Listener {
+
+    private final String name;
+    private final SocketAddress address;
+    private final int bossGroupSize;
+    private final int workerGroupSize;
+    private final TrafficLimits trafficLimits;
+    private final InfoForwarding infoForwarding;
+    private final boolean useProxyProtocol;
+    private final boolean useIpLimits;
+
+    public Listener(String name, SocketAddress address, int bossGroupSize, int workerGroupSize,
+                    TrafficLimits trafficLimits, InfoForwarding infoForwarding,
+                    boolean useProxyProtocol, boolean useIpLimits) {
+        this.name = name;
+        this.address = address;
+        this.bossGroupSize = bossGroupSize;
+        this.workerGroupSize = workerGroupSize;
+        this.trafficLimits = trafficLimits;
+        this.infoForwarding = infoForwarding;
+        this.useProxyProtocol = useProxyProtocol;
+        this.useIpLimits = useIpLimits;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public SocketAddress getAddress() {
+        return address;
+    }
+
+    public boolean isUnixSocket() {
+        return address instanceof DomainSocketAddress;
+    }
+
+    public int getBossGroupSize() {
+        return bossGroupSize;
+    }
+
+    public int getWorkerGroupSize() {
+        return workerGroupSize;
+    }
+
+    public TrafficLimits getTrafficLimits() {
+        return trafficLimits;
+    }
+
+    public InfoForwarding getInfoForwarding() {
+        return infoForwarding;
+    }
+
+    public boolean isUseProxyProtocol() {
+        return useProxyProtocol;
+    }
+
+    public boolean isUseIpLimits() {
+        return useIpLimits;
+    }
+
+    @Override
+    public String toString() {
+        String addressString = isUnixSocket()
+                ? "unix:" + ((DomainSocketAddress) address).path()
+                : address.toString();
+        return name + " (" + addressString + ")";
+    }
+}
@@ -29,6 +29,7 @@ public class PingData {
     private String version;
     private String description;
     private int protocol;
+    private String favicon;
 
     public String getVersion() {
         return version;
@@ -54,6 +55,17 @@ public class PingData {
         this.protocol = protocol;
     }
 
+    /**
+     * @return Server icon as data URI, or null if not set
+     */
+    public String getFavicon() {
+        return favicon;
+    }
+
+    public void setFavicon(String favicon) {
+        this.favicon = favicon;
+    }
+
     public static class Serializer implements TypeSerializer<PingData> {
 
         @Override
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.server.data;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.spongepowered.configurate.ConfigurationNode;
+import org.spongepowered.configurate.serialize.TypeSerializer;
+
+import java.lang.reflect.Type;
+
+public class TrafficLimits {
+
+    private boolean enabled;
+    private int maxPacketSize;
+    private double interval;
+    private double maxPacketRate;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getMaxPacketSize() {
+        return maxPacketSize;
+    }
+
+    public double getInterval() {
+        return interval;
+    }
+
+    public double getMaxPacketRate() {
+        return maxPacketRate;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setMaxPacketSize(int maxPacketSize) {
+        this.maxPacketSize = maxPacketSize;
+    }
+
+    public void setInterval(double interval) {
+        this.interval = interval;
+    }
+
+    public void setMaxPacketRate(double maxPacketRate) {
+        this.maxPacketRate = maxPacketRate;
+    }
+
+    public static class Serializer implements TypeSerializer<TrafficLimits> {
+
+        @Override
+        public TrafficLimits deserialize(Type type, ConfigurationNode node) {
+            TrafficLimits limits = new TrafficLimits();
+            limits.setEnabled(node.node("enable").getBoolean(false));
+            limits.setMaxPacketSize(node.node("maxPacketSize").getInt(-1));
+            limits.setInterval(node.node("interval").getDouble(-1.0));
+            limits.setMaxPacketRate(node.node("maxPacketRate").getDouble(-1.0));
+            return limits;
+        }
+
+        @Override
+        public void serialize(Type type, @Nullable TrafficLimits obj, ConfigurationNode node) {
+
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.server.jfr;
+
+import java.net.SocketAddress;
+
+/**
+ * Receiver of limbo events. Default methods do nothing
+ */
+interface EventSink {
+
+    default void connectionAccepted(SocketAddress address) {
+    }
+
+    default void stateChanged(SocketAddress address, String from, String to, int protocol) {
+    }
+
+    default void loginRejected(SocketAddress address, String reason, int protocol) {
+    }
+
+    default void decodeFailed(SocketAddress address, String state, int packetId, int size, Throwable error) {
+    }
+
+    default void trafficKicked(SocketAddress address, String reason, long value) {
+    }
+
+    default void unwritableStall(SocketAddress address, long durationNanos, boolean closed) {
+    }
+
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.server.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+import java.net.SocketAddress;
+
+/**
+ * Sink which commits Flight Recorder events. Loaded reflectively by {@link LimboEvents}
+ */
+final class JfrEventSink implements EventSink {
+
+    @Override
+    public void connectionAccepted(SocketAddress address) {
+        ConnectionAcceptEvent event = new ConnectionAcceptEvent();
+
+        if (event.isEnabled()) {
+            event.address = String.valueOf(address);
+            event.commit();
+        }
+    }
+
+    @Override
+    public void stateChanged(SocketAddress address, String from, String to, int protocol) {
+        StateChangeEvent event = new StateChangeEvent();
+
+        if (event.isEnabled()) {
+            event.address = String.valueOf(address);
+            event.from = from;
+            event.to = to;
+            event.protocol = protocol;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void loginRejected(SocketAddress address, String reason, int protocol) {
+        LoginRejectEvent event = new LoginRejectEvent();
+
+        if (event.isEnabled()) {
+            event.address = String.valueOf(address);
+            event.reason = reason;
+            event.protocol = protocol;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void decodeFailed(SocketAddress address, String state, int packetId, int size, Throwable error) {
+        DecodeFailureEvent event = new DecodeFailureEvent();
+
+        if (event.isEnabled()) {
+            event.address = String.valueOf(address);
+            event.state = state;
+            event.packetId = packetId;
+            event.size = size;
+            event.error = error.toString();
+            event.commit();
+        }
+    }
+
+    @Override
+    public void trafficKicked(SocketAddress address, String reason, long value) {
+        TrafficKickEvent event = new TrafficKickEvent();
+
+        if (event.isEnabled()) {
+            event.address = String.valueOf(address);
+            event.reason = reason;
+            event.value = value;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void unwritableStall(SocketAddress address, long durationNanos, boolean closed) {
+        UnwritableStallEvent event = new UnwritableStallEvent();
+
+        if (event.isEnabled()) {
+            event.address = String.valueOf(address);
+            event.stall = durationNanos;
+            event.closed = closed;
+            event.commit();
+        }
+    }
+
+    @Name("nanolimbo.ConnectionAccept")
+    @Label("Connection Accept")
+    @Category("NanoLimbo")
+    static final class ConnectionAcceptEvent extends Event {
+        @Label("Address")
+        String address;
+    }
+
+    @Name("nanolimbo.StateChange")
+    @Label("State Change")
+    @Category("NanoLimbo")
+    static final class StateChangeEvent extends Event {
+        @Label("Address")
+        String address;
+        @Label("From")
+        String from;
+        @Label("To")
+        String to;
+        @Label("Protocol")
+        int protocol;
+    }
+
+    @Name("nanolimbo.LoginReject")
+    @Label("Login Reject")
+    @Category("NanoLimbo")
+    static final class LoginRejectEvent extends Event {
+        @Label("Address")
+        String address;
+        @Label("Reason")
+        String reason;
+        @Label("Protocol")
+        int protocol;
+    }
+
+    @Name("nanolimbo.DecodeFailure")
+    @Label("Decode Failure")
+    @Category("NanoLimbo")
+    static final class DecodeFailureEvent extends Event {
+        @Label("Address")
+        String address;
+        @Label("State")
+        String state;
+        @Label("Packet Id")
+        int packetId;
+        @Label("Size")
+        @Description("Packet size without length prefix")
+        int size;
+        @Label("Error")
+        String error;
+    }
+
+    @Name("nanolimbo.TrafficKick")
+    @Label("Traffic Limit Kick")
+    @Category("NanoLimbo")
+    static final class TrafficKickEvent extends Event {
+        @Label("Address")
+        String address;
+        @Label("Reason")
+        String reason;
+        @Label("Value")
+        @Description("Packet size or packet rate which exceeded the limit")
+        long value;
+    }
+
+    @Name("nanolimbo.UnwritableStall")
+    @Label("Unwritable Channel Stall")
+    @Category("NanoLimbo")
+    static final class UnwritableStallEvent extends Event {
+        @Label("Address")
+        String address;
+        @Label("Stall")
+        @Timespan(Timespan.NANOSECONDS)
+        long stall;
+        @Label("Closed")
+        @Description("Channel was closed before it became writable again")
+        boolean closed;
+    }
+}
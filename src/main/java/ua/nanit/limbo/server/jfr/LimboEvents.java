@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.server.jfr;
+
+import ua.nanit.limbo.connection.DisconnectReason;
+import ua.nanit.limbo.protocol.registry.State;
+import ua.nanit.limbo.protocol.registry.Version;
+import ua.nanit.limbo.server.Log;
+
+import java.net.SocketAddress;
+
+/**
+ * Entry point for JDK Flight Recorder events of the limbo.
+ * Events are emitted only if the runtime has Flight Recorder, otherwise all methods do nothing.
+ * When recording is off, each call costs an allocation which is usually eliminated by JIT and one check
+ */
+public final class LimboEvents {
+
+    private static final EventSink SINK = createSink();
+
+    private LimboEvents() {
+    }
+
+    public static boolean isAvailable() {
+        return SINK instanceof JfrEventSink;
+    }
+
+    public static void connectionAccepted(SocketAddress address) {
+        SINK.connectionAccepted(address);
+    }
+
+    public static void stateChanged(SocketAddress address, State from, State to, Version version) {
+        SINK.stateChanged(address, from.name(), to.name(), version != null ? version.getProtocolNumber() : -1);
+    }
+
+    public static void loginRejected(SocketAddress address, DisconnectReason reason, Version version) {
+        SINK.loginRejected(address, reason.name(), version != null ? version.getProtocolNumber() : -1);
+    }
+
+    public static void decodeFailed(SocketAddress address, State state, int packetId, int size, Throwable error) {
+        SINK.decodeFailed(address, state.name(), packetId, size, error);
+    }
+
+    /**
+     * @param reason Exceeded limit
+     * @param value Value which exceeded the limit
+     */
+    public static void trafficKicked(SocketAddress address, String reason, long value) {
+        SINK.trafficKicked(address, reason, value);
+    }
+
+    /**
+     * @param durationNanos Time while channel was not writable
+     * @param closed Whether channel was closed before it became writable again
+     */
+    public static void unwritableStall(SocketAddress address, long durationNanos, boolean closed) {
+        SINK.unwritableStall(address, durationNanos, closed);
+    }
+
+    private static EventSink createSink() {
+        try {
+            // JFR classes are referenced only from the loaded class, so older runtimes never resolve them
+            Class.forName("jdk.jfr.Event");
+            return (EventSink) Class.forName("ua.nanit.limbo.server.jfr.JfrEventSink")
+                    .getDeclaredConstructor()
+                    .newInstance();
+        } catch (ClassNotFoundException e) {
+            return new EventSink() {};
+        } catch (Throwable t) {
+            Log.warning("Cannot enable Flight Recorder events: %s", t.toString());
+            return new EventSink() {};
+        }
+    }
+}
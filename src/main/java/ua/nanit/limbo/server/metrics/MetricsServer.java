@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.server.metrics;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.timeout.ReadTimeoutHandler;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import ua.nanit.limbo.server.LimboServer;
+import ua.nanit.limbo.server.Log;
+
+import java.net.SocketAddress;
+
+/**
+ * HTTP server for metrics scrapes. It has its own single thread event loop,
+ * so it doesn't share threads with players
+ */
+public final class MetricsServer {
+
+    private final SocketAddress address;
+    private final PrometheusExporter exporter;
+    private EventLoopGroup group;
+
+    public MetricsServer(LimboServer server, SocketAddress address) {
+        this.address = address;
+        this.exporter = new PrometheusExporter(server);
+    }
+
+    public void start() {
+        group = new NioEventLoopGroup(1, new DefaultThreadFactory("nanolimbo-metrics", true));
+
+        new ServerBootstrap()
+                .group(group)
+                .channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel channel) {
+                        channel.pipeline()
+                                .addLast("timeout", new ReadTimeoutHandler(10))
+                                .addLast("codec", new HttpServerCodec())
+                                .addLast("aggregator", new HttpObjectAggregator(8192))
+                                .addLast("handler", new MetricsHandler(exporter));
+                    }
+                })
+                .bind(address)
+                .addListener(future -> {
+                    if (future.isSuccess()) {
+                        Log.info("Metrics server started on %s", address);
+                    } else {
+                        Log.error("Cannot start metrics server on %s: %s", address, future.cause().getMessage());
+                    }
+                });
+    }
+
+    public void stop() {
+        if (group != null) {
+            group.shutdownGracefully();
+        }
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.server.metrics;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufAllocatorMetric;
+import io.netty.buffer.ByteBufAllocatorMetricProvider;
+import io.netty.util.internal.PlatformDependent;
+import ua.nanit.limbo.connection.ClientConnection;
+import ua.nanit.limbo.connection.ConnectionStats;
+import ua.nanit.limbo.connection.DisconnectReason;
+import ua.nanit.limbo.connection.JoinPhase;
+import ua.nanit.limbo.connection.JoinTimings;
+import ua.nanit.limbo.connection.PacketCounters;
+import ua.nanit.limbo.protocol.registry.State;
+import ua.nanit.limbo.protocol.registry.Version;
+import ua.nanit.limbo.server.AdmissionController;
+import ua.nanit.limbo.server.EventLoopMonitor;
+import ua.nanit.limbo.server.IpConnectionLimiter;
+import ua.nanit.limbo.server.LimboServer;
+import ua.nanit.limbo.server.LoginQueue;
+import ua.nanit.limbo.server.MemoryGuard;
+import ua.nanit.limbo.server.capture.TrafficCapture;
+import ua.nanit.limbo.util.Histogram;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Writes server state in Prometheus text exposition format.
+ * All values are read from counters of server components at the time of scrape
+ */
+public final class PrometheusExporter {
+
+    private static final String PREFIX = "nanolimbo_";
+
+    private static final double[] JOIN_TIME_BUCKETS = {0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+    private static final double[] LOOP_LAG_BUCKETS = {0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 5};
+    private static final double[] RTT_BUCKETS = {0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1};
+
+    private final LimboServer server;
+
+    public PrometheusExporter(LimboServer server) {
+        this.server = server;
+    }
+
+    public String export() {
+        StringBuilder out = new StringBuilder(8192);
+        ConnectionStats stats = server.getConnectionStats();
+
+        header(out, "connections", "gauge", "Open connections by protocol state");
+        for (State state : State.values()) {
+            sample(out, "connections", "state", name(state), stats.getActive(state));
+        }
+
+        Map<Version, Integer> players = new EnumMap<>(Version.class);
+        for (ClientConnection connection : server.getConnections().getAllConnections()) {
+            players.merge(connection.getClientVersion(), 1, Integer::sum);
+        }
+
+        header(out, "players", "gauge", "Players in the world by client version");
+        for (Map.Entry<Version, Integer> entry : players.entrySet()) {
+            sample(out, "players", "version", entry.getKey().getProtocolNumber() + "", entry.getValue());
+        }
+
+        counter(out, "connections_opened_total", "Accepted connections", stats.getOpened());
+        counter(out, "joins_total", "Players who finished login", stats.getJoins());
+        histogram(out, "join_duration_seconds", "Time from connection to spawn in the world",
+                stats.getJoinTime(), JOIN_TIME_BUCKETS);
+        histogram(out, "keepalive_rtt_seconds", "Round trip time of keep alive packets",
+                server.getKeepAliveScheduler().getRttHistogram(), RTT_BUCKETS);
+
+        JoinTimings timings = stats.getJoinTimings();
+        header(out, "join_phase_seconds", "histogram", "Duration of join phases by client version");
+        for (JoinPhase phase : JoinPhase.values()) {
+            for (Version version : Version.values()) {
+                Histogram histogram = timings.getHistogram(phase, version);
+
+                if (histogram != null) {
+                    histogramSamples(out, "join_phase_seconds", "phase=\"" + name(phase) + "\",version=\""
+                            + version.getProtocolNumber() + "\",", histogram, JOIN_TIME_BUCKETS);
+                }
+            }
+        }
+
+        header(out, "network_bytes_total", "counter", "Bytes of packets including length prefix");
+        sample(out, "network_bytes_total", "direction", "in", stats.getBytesIn());
+        sample(out, "network_bytes_total", "direction", "out", stats.getBytesOut());
+
+        header(out, "network_packets_total", "counter", "Packets received and sent");
+        sample(out, "network_packets_total", "direction", "in", stats.getPacketsIn());
+        sample(out, "network_packets_total", "direction", "out", stats.getPacketsOut());
+
+        EventLoopMonitor loopMonitor = server.getEventLoopMonitor();
+        if (loopMonitor != null) {
+            header(out, "event_loop_lag_seconds", "histogram", "Delay of periodic probe task by event loop");
+            for (EventLoopMonitor.Probe probe : loopMonitor.getProbes()) {
+                histogramSamples(out, "event_loop_lag_seconds", "loop=\"" + probe.getName() + "\",",
+                        probe.getLag(), LOOP_LAG_BUCKETS);
+            }
+
+            header(out, "event_loop_pending_tasks", "gauge", "Tasks in event loop queue at the last probe");
+            for (EventLoopMonitor.Probe probe : loopMonitor.getProbes()) {
+                sample(out, "event_loop_pending_tasks", "loop", probe.getName(), probe.getPendingTasks());
+            }
+        }
+
+        PacketCounters packetCounters = stats.getPacketCounters();
+        header(out, "packets_by_id_total", "counter", "Packets by direction, protocol state and packet id");
+        for (PacketCounters.Direction direction : PacketCounters.Direction.values()) {
+            for (State state : State.values()) {
+                for (int slot = 0; slot <= PacketCounters.OTHER_SLOT; slot++) {
+                    long packets = packetCounters.getPackets(direction, state, slot);
+
+                    if (packets > 0)
+                        sample(out, "packets_by_id_total", packetLabels(direction, state, slot), packets);
+                }
+            }
+        }
+
+        header(out, "packet_bytes_by_id_total", "counter", "Bytes of packets by direction, protocol state and packet id");
+        for (PacketCounters.Direction direction : PacketCounters.Direction.values()) {
+            for (State state : State.values()) {
+                for (int slot = 0; slot <= PacketCounters.OTHER_SLOT; slot++) {
+                    long bytes = packetCounters.getBytes(direction, state, slot);
+
+                    if (bytes > 0)
+                        sample(out, "packet_bytes_by_id_total", packetLabels(direction, state, slot), bytes);
+                }
+            }
+        }
+
+        header(out, "unknown_packets_total", "counter", "Received packets not registered for client version and state");
+        for (State state : State.values()) {
+            for (int slot = 0; slot <= PacketCounters.OTHER_SLOT; slot++) {
+                long unknown = packetCounters.getUnknown(state, slot);
+
+                if (unknown > 0)
+                    sample(out, "unknown_packets_total", packetLabels(PacketCounters.Direction.IN, state, slot), unknown);
+            }
+        }
+
+        counter(out, "decode_errors_total", "Malformed frames and packets", stats.getDecodeErrors());
+
+        header(out, "traffic_kicks_total", "counter", "Connections closed by traffic limits");
+        sample(out, "traffic_kicks_total", "reason", "packet_size", stats.getPacketSizeKicks());
+        sample(out, "traffic_kicks_total", "reason", "packet_rate", stats.getPacketRateKicks());
+
+        header(out, "login_rejections_total", "counter", "Players disconnected at login by reason");
+        for (DisconnectReason reason : DisconnectReason.values()) {
+            sample(out, "login_rejections_total", "reason", name(reason), reason.getCount());
+        }
+
+        writeAcceptRejections(out);
+
+        header(out, "timeouts_total", "counter", "Connections closed by deadlines");
+        sample(out, "timeouts_total", "type", "read", stats.getReadTimeouts());
+        sample(out, "timeouts_total", "type", "unwritable", stats.getUnwritableEvictions());
+        for (State state : State.values()) {
+            sample(out, "timeouts_total", "type", name(state), stats.getStateTimeouts(state));
+        }
+
+        counter(out, "skipped_writes_total", "Optional packets not sent to slow clients", stats.getSkippedWrites());
+
+        AdmissionController admission = server.getAdmission();
+        header(out, "slots", "gauge", "Player slots taken by players and by logins in progress");
+        sample(out, "slots", "kind", "in_use", admission.getInUse());
+        sample(out, "slots", "kind", "reserved", admission.getReserved());
+        gauge(out, "slots_max", "Max player slots, 0 if unlimited", admission.getCapacity());
+
+        LoginQueue loginQueue = server.getLoginQueue();
+        if (loginQueue != null) {
+            gauge(out, "login_queue_depth", "Players waiting in login queue", loginQueue.getDepth());
+            counter(out, "login_queue_queued_total", "Logins which waited in queue", loginQueue.getQueued());
+        }
+
+        header(out, "status_responses_total", "counter", "Status responses by cache result");
+        sample(out, "status_responses_total", "cache", "hit", server.getStatusCache().getHits());
+        sample(out, "status_responses_total", "cache", "miss", server.getStatusCache().getMisses());
+
+        TrafficCapture capture = server.getTrafficCapture();
+        gauge(out, "capture_enabled", "Whether new connections are captured", capture.isEnabled() ? 1 : 0);
+        counter(out, "capture_files_total", "Capture files created", capture.getFiles());
+        counter(out, "capture_truncated_total", "Capture files which reached maximum size or lost data", capture.getTruncated());
+        counter(out, "capture_skipped_total", "Connections not captured because too many files were open",
+                capture.getSkipped());
+        gauge(out, "capture_open_files", "Capture files of connections still open", capture.getOpenFiles());
+
+        writeMemory(out);
+
+        return out.toString();
+    }
+
+    private void writeAcceptRejections(StringBuilder out) {
+        String name = "accept_rejections_total";
+        header(out, name, "counter", "Connections closed before reading any data by reason");
+
+        if (server.getIpFilter() != null)
+            sample(out, name, "reason", "blocklist", server.getIpFilter().getBlocked());
+
+        IpConnectionLimiter limiter = server.getIpLimiter();
+        if (limiter != null) {
+            sample(out, name, "reason", "ip_connections", limiter.getRejectedByConnections());
+            sample(out, name, "reason", "ip_rate", limiter.getRejectedByRate());
+        }
+
+        if (server.getStatusLimiter() != null)
+            sample(out, name, "reason", "status_ip_rate", server.getStatusLimiter().getRejectedByRate());
+
+        MemoryGuard guard = server.getMemoryGuard();
+        if (guard != null) {
+            sample(out, name, "reason", "memory", guard.getRefusedAccepts());
+            sample(out, name, "reason", "memory_status", guard.getShedStatus());
+            sample(out, name, "reason", "memory_login", guard.getPausedLogins());
+        }
+
+        counter(out, "slot_rejections_total", "Logins rejected because all slots were taken",
+                server.getAdmission().getRejected());
+    }
+
+    private void writeMemory(StringBuilder out) {
+        Runtime runtime = Runtime.getRuntime();
+        gauge(out, "jvm_heap_used_bytes", "Used heap memory", runtime.totalMemory() - runtime.freeMemory());
+        gauge(out, "jvm_heap_after_gc_bytes", "Heap occupied after the last garbage collection, used by memory guard",
+                MemoryGuard.getHeapAfterGc());
+        gauge(out, "jvm_heap_max_bytes", "Max heap memory", runtime.maxMemory());
+        gauge(out, "netty_direct_memory_used_bytes", "Direct memory used by Netty, -1 if not tracked",
+                PlatformDependent.usedDirectMemory());
+        gauge(out, "netty_direct_memory_max_bytes", "Max direct memory available for Netty",
+                PlatformDependent.maxDirectMemory());
+
+        ByteBufAllocator allocator = ByteBufAllocator.DEFAULT;
+        if (allocator instanceof ByteBufAllocatorMetricProvider) {
+            ByteBufAllocatorMetric metric = ((ByteBufAllocatorMetricProvider) allocator).metric();
+            header(out, "netty_allocator_used_bytes", "gauge", "Memory held by default buffer allocator");
+            sample(out, "netty_allocator_used_bytes", "type", "heap", metric.usedHeapMemory());
+            sample(out, "netty_allocator_used_bytes", "type", "direct", metric.usedDirectMemory());
+        }
+
+        MemoryGuard guard = server.getMemoryGuard();
+        if (guard != null) {
+            header(out, "memory_guard_mode", "gauge", "Current mode of memory guard");
+            for (MemoryGuard.Mode mode : MemoryGuard.Mode.values()) {
+                sample(out, "memory_guard_mode", "mode", name(mode), guard.getMode() == mode ? 1 : 0);
+            }
+        }
+    }
+
+    private static void histogram(StringBuilder out, String name, String help, Histogram histogram, double[] buckets) {
+        header(out, name, "histogram", help);
+        histogramSamples(out, name, "", histogram, buckets);
+    }
+
+    /**
+     * @param labels Labels without braces in form of {@code key="value",}, or empty string
+     */
+    private static void histogramSamples(StringBuilder out, String name, String labels,
+                                         Histogram histogram, double[] buckets) {
+        for (double bucket : buckets) {
+            long count = histogram.getCountAtOrBelow((long) (bucket * 1_000_000));
+            out.append(PREFIX).append(name).append("_bucket{").append(labels).append("le=\"").append(bucket)
+                    .append("\"} ").append(count).append('\n');
+        }
+
+        out.append(PREFIX).append(name).append("_bucket{").append(labels).append("le=\"+Inf\"} ")
+                .append(histogram.getCount()).append('\n');
+
+        String plainLabels = labels.isEmpty() ? "" : "{" + labels.substring(0, labels.length() - 1) + "}";
+        out.append(PREFIX).append(name).append("_sum").append(plainLabels).append(' ')
+                .append(histogram.getSum() / 1_000_000.0).append('\n');
+        out.append(PREFIX).append(name).append("_count").append(plainLabels).append(' ')
+                .append(histogram.getCount()).append('\n');
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        header(out, name, "counter", help);
+        out.append(PREFIX).append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, long value) {
+        header(out, name, "gauge", help);
+        out.append(PREFIX).append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String label, String labelValue, long value) {
+        out.append(PREFIX).append(name).append('{').append(label).append("=\"").append(labelValue)
+                .append("\"} ").append(value).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, long value) {
+        out.append(PREFIX).append(name).append('{').append(labels).append("} ").append(value).append('\n');
+    }
+
+    private static String packetLabels(PacketCounters.Direction direction, State state, int slot) {
+        return "direction=\"" + name(direction) + "\",state=\"" + name(state) + "\",id=\""
+                + (slot == PacketCounters.OTHER_SLOT ? "other" : "0x" + Integer.toHexString(slot)) + "\"";
+    }
+
+    private static String name(Enum<?> value) {
+        return value.name().toLowerCase(Locale.ROOT);
+    }
+}
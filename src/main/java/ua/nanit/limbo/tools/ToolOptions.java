@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.tools;
+
+import ua.nanit.limbo.protocol.registry.Version;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Command line options of tools, given as {@code --name value} pairs
+ */
+final class ToolOptions {
+
+    private final Map<String, String> values;
+
+    private ToolOptions(Map<String, String> values) {
+        this.values = values;
+    }
+
+    static ToolOptions parse(String[] args) {
+        Map<String, String> values = new HashMap<>();
+
+        for (int i = 0; i < args.length; i += 2) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length)
+                throw new IllegalArgumentException("Unexpected argument " + args[i] + ", options are given as --name value");
+
+            values.put(args[i].substring(2), args[i + 1]);
+        }
+
+        return new ToolOptions(values);
+    }
+
+    boolean has(String name) {
+        return values.containsKey(name);
+    }
+
+    String get(String name, String def) {
+        return values.getOrDefault(name, def);
+    }
+
+    int getInt(String name, int def) {
+        return has(name) ? Integer.parseInt(values.get(name)) : def;
+    }
+
+    long getLong(String name, long def) {
+        return has(name) ? Long.parseLong(values.get(name)) : def;
+    }
+
+    double getDouble(String name, double def) {
+        return has(name) ? Double.parseDouble(values.get(name)) : def;
+    }
+
+    /**
+     * @param def Value if option is not set
+     * @return Supported versions by protocol numbers separated by comma, or all of them for "all"
+     */
+    List<Version> getVersions(String name, String def) {
+        String value = get(name, def);
+        List<Version> versions = new ArrayList<>();
+
+        if (value.equalsIgnoreCase("all")) {
+            for (Version version : Version.values()) {
+                if (version.isSupported())
+                    versions.add(version);
+            }
+            return versions;
+        }
+
+        for (String protocol : value.split(",")) {
+            Version version = Version.of(Integer.parseInt(protocol.trim()));
+
+            if (version == null || !version.isSupported())
+                throw new IllegalArgumentException("Unsupported protocol " + protocol);
+
+            versions.add(version);
+        }
+
+        return versions;
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.tools;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.*;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.ReferenceCountUtil;
+import org.jetbrains.annotations.NotNull;
+import ua.nanit.limbo.server.Log;
+import ua.nanit.limbo.server.capture.Capture;
+import ua.nanit.limbo.server.capture.CaptureFormat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Replays capture files written by server to a running limbo. Each captured connection is opened
+ * at its original offset from the first one and sends the same chunks of data at the original timing,
+ * or faster by the given factor.
+ * <p>
+ * Keep alive ids are random, so replayed answers don't match and server counts them as missed.
+ * <p>
+ * Usage: {@code java -cp NanoLimbo.jar ua.nanit.limbo.tools.TrafficReplay --file path [--option value]...}
+ * <ul>
+ *     <li>--file: capture file or directory with them</li>
+ *     <li>--host, --port: server address, 127.0.0.1:25565 by default</li>
+ *     <li>--speed: timing factor, 1 by default, 0 to send everything without delays</li>
+ *     <li>--repeat: how many times to replay all captures one after another, 1 by default</li>
+ *     <li>--threads: event loop threads, twice the number of cores by default</li>
+ * </ul>
+ */
+public final class TrafficReplay {
+
+    private final double speed;
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder closedByServer = new LongAdder();
+
+    private TrafficReplay(double speed) {
+        this.speed = speed;
+    }
+
+    public static void main(String[] args) throws Exception {
+        ToolOptions options = ToolOptions.parse(args);
+
+        if (!options.has("file"))
+            throw new IllegalArgumentException("Capture file or directory is not set, use --file path");
+
+        String host = options.get("host", "127.0.0.1");
+        int port = options.getInt("port", 25565);
+        double speed = options.getDouble("speed", 1);
+        int repeat = options.getInt("repeat", 1);
+        List<Capture> captures = load(Paths.get(options.get("file", null)));
+
+        if (captures.isEmpty()) {
+            Log.error("No capture files found");
+            return;
+        }
+
+        boolean epoll = Epoll.isAvailable();
+        EventLoopGroup group = epoll
+                ? new EpollEventLoopGroup(options.getInt("threads", 0))
+                : new NioEventLoopGroup(options.getInt("threads", 0));
+        Bootstrap bootstrap = new Bootstrap()
+                .group(group)
+                .channel(epoll ? EpollSocketChannel.class : NioSocketChannel.class)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 10000);
+
+        TrafficReplay replay = new TrafficReplay(speed);
+        long firstStart = captures.get(0).getStartMillis();
+        long records = captures.stream().mapToLong(capture -> capture.getRecords().size()).sum();
+
+        Log.info("Replaying %d connections with %d reads to %s:%d at %sx speed", captures.size(), records,
+                host, port, speed > 0 ? speed : "unlimited");
+
+        long start = System.nanoTime();
+
+        for (int i = 0; i < repeat; i++) {
+            CountDownLatch done = new CountDownLatch(captures.size());
+
+            for (Capture capture : captures) {
+                long delay = replay.scale(TimeUnit.MILLISECONDS.toMicros(capture.getStartMillis() - firstStart));
+
+                group.schedule(() -> bootstrap.clone()
+                        .handler(replay.new ReplayConnection(capture, done))
+                        .connect(host, port)
+                        .addListener((ChannelFutureListener) future -> {
+                            if (!future.isSuccess()) {
+                                replay.failed.increment();
+                                done.countDown();
+                            }
+                        }), delay, TimeUnit.NANOSECONDS);
+            }
+
+            done.await();
+        }
+
+        Log.info("Replayed in %.1f s: %d bytes sent, %d bytes received, %d failed to connect, "
+                        + "%d closed by server before end of capture",
+                (System.nanoTime() - start) / 1e9, replay.bytesSent.sum(), replay.bytesReceived.sum(),
+                replay.failed.sum(), replay.closedByServer.sum());
+
+        group.shutdownGracefully();
+    }
+
+    private static List<Capture> load(Path path) throws IOException {
+        List<Path> files;
+
+        if (Files.isDirectory(path)) {
+            try (Stream<Path> stream = Files.list(path)) {
+                files = stream.filter(file -> file.toString().endsWith(CaptureFormat.EXTENSION))
+                        .collect(Collectors.toList());
+            }
+        } else {
+            files = new ArrayList<>();
+            files.add(path);
+        }
+
+        List<Capture> captures = new ArrayList<>();
+
+        for (Path file : files) {
+            captures.add(Capture.read(file));
+        }
+
+        captures.sort(Comparator.comparingLong(Capture::getStartMillis));
+        return captures;
+    }
+
+    /**
+     * @param micros Captured time
+     * @return Replay time in nanoseconds
+     */
+    private long scale(long micros) {
+        return speed > 0 ? (long) (micros * 1000 / speed) : 0;
+    }
+
+    private final class ReplayConnection extends ChannelInboundHandlerAdapter {
+
+        private final Capture capture;
+        private final CountDownLatch done;
+        private long start;
+        private int next;
+        private boolean finished;
+
+        private ReplayConnection(Capture capture, CountDownLatch done) {
+            this.capture = capture;
+            this.done = done;
+        }
+
+        @Override
+        public void channelActive(@NotNull ChannelHandlerContext ctx) {
+            start = System.nanoTime();
+            sendNext(ctx);
+        }
+
+        private void sendNext(ChannelHandlerContext ctx) {
+            if (!ctx.channel().isActive())
+                return;
+
+            List<Capture.Record> records = capture.getRecords();
+
+            while (next < records.size()) {
+                Capture.Record record = records.get(next);
+                long delay = start + scale(record.getMicros()) - System.nanoTime();
+
+                if (delay > 0) {
+                    ctx.executor().schedule(() -> sendNext(ctx), delay, TimeUnit.NANOSECONDS);
+                    return;
+                }
+
+                ctx.writeAndFlush(Unpooled.wrappedBuffer(record.getData()));
+                bytesSent.add(record.getData().length);
+                next++;
+            }
+
+            ctx.executor().schedule(() -> {
+                finished = true;
+                ctx.close();
+            }, Math.max(0, start + scale(capture.getCloseMicros()) - System.nanoTime()), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void channelRead(@NotNull ChannelHandlerContext ctx, @NotNull Object msg) {
+            if (msg instanceof ByteBuf)
+                bytesReceived.add(((ByteBuf) msg).readableBytes());
+
+            ReferenceCountUtil.release(msg);
+        }
+
+        @Override
+        public void channelInactive(@NotNull ChannelHandlerContext ctx) {
+            if (!finished) {
+                closedByServer.increment();
+                Log.debug("Server closed replay of %s after %d of %d reads", capture.getFile().getFileName(),
+                        next, capture.getRecords().size());
+            }
+
+            done.countDown();
+        }
+
+        @Override
+        public void exceptionCaught(@NotNull ChannelHandlerContext ctx, @NotNull Throwable cause) {
+            ctx.close();
+        }
+    }
+}
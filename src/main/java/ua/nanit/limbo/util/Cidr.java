@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.util;
+
+import io.netty.util.NetUtil;
+
+import java.net.InetAddress;
+
+/**
+ * IPv4 or IPv6 network in CIDR notation, like 10.0.0.0/8 or 2001:db8::/32.
+ * Address without prefix length is treated as a single host
+ */
+public final class Cidr {
+
+    private final byte[] network;
+    private final int prefixLength;
+
+    private Cidr(byte[] network, int prefixLength) {
+        this.network = network;
+        this.prefixLength = prefixLength;
+    }
+
+    public byte[] getNetwork() {
+        return network.clone();
+    }
+
+    public int getPrefixLength() {
+        return prefixLength;
+    }
+
+    public boolean isIpv4() {
+        return network.length == 4;
+    }
+
+    public boolean contains(InetAddress address) {
+        return contains(address.getAddress());
+    }
+
+    public boolean contains(byte[] address) {
+        if (address.length != network.length)
+            return false;
+
+        int fullBytes = prefixLength >> 3;
+
+        for (int i = 0; i < fullBytes; i++) {
+            if (address[i] != network[i])
+                return false;
+        }
+
+        int remainingBits = prefixLength & 7;
+
+        if (remainingBits == 0)
+            return true;
+
+        int mask = (0xFF << (8 - remainingBits)) & 0xFF;
+        return (address[fullBytes] & mask) == (network[fullBytes] & mask);
+    }
+
+    @Override
+    public String toString() {
+        try {
+            return InetAddress.getByAddress(network).getHostAddress() + "/" + prefixLength;
+        } catch (Exception e) {
+            return super.toString();
+        }
+    }
+
+    /**
+     * Parse network from string. Host names are not resolved
+     * @param str Network in CIDR notation or single IP address
+     * @return Parsed network
+     * @throws IllegalArgumentException if string is not a valid IP address or network
+     */
+    public static Cidr parse(String str) {
+        String value = str.trim();
+        int slash = value.indexOf('/');
+        String host = slash == -1 ? value : value.substring(0, slash);
+        byte[] address = NetUtil.createByteArrayFromIpAddressString(host);
+
+        if (address == null)
+            throw new IllegalArgumentException("Invalid IP address: " + str);
+
+        int maxLength = address.length * 8;
+        int prefixLength = maxLength;
+
+        if (slash != -1) {
+            try {
+                prefixLength = Integer.parseInt(value.substring(slash + 1));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid prefix length: " + str);
+            }
+
+            if (prefixLength < 0 || prefixLength > maxLength)
+                throw new IllegalArgumentException("Invalid prefix length: " + str);
+        }
+
+        // Clear host bits so the network is always in canonical form
+        for (int bit = prefixLength; bit < maxLength; bit++) {
+            address[bit >> 3] &= (byte) ~(0x80 >> (bit & 7));
+        }
+
+        return new Cidr(address, prefixLength);
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.util;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable set of IPv4 and IPv6 networks compiled into sorted arrays of
+ * non-overlapping address ranges. Lookup is a binary search over primitive arrays,
+ * so it stays fast and compact with hundreds of thousands of networks
+ */
+public final class CidrSet {
+
+    private static final CidrSet EMPTY = of(Collections.emptyList());
+
+    // IPv4 ranges as unsigned 32-bit values
+    private final long[] v4Starts;
+    private final long[] v4Ends;
+
+    // IPv6 ranges as unsigned 128-bit values split into high and low parts
+    private final long[] v6StartsHigh;
+    private final long[] v6StartsLow;
+    private final long[] v6EndsHigh;
+    private final long[] v6EndsLow;
+
+    private CidrSet(List<Range> v4, List<Range> v6) {
+        v4Starts = new long[v4.size()];
+        v4Ends = new long[v4.size()];
+
+        for (int i = 0; i < v4.size(); i++) {
+            v4Starts[i] = v4.get(i).startLow;
+            v4Ends[i] = v4.get(i).endLow;
+        }
+
+        v6StartsHigh = new long[v6.size()];
+        v6StartsLow = new long[v6.size()];
+        v6EndsHigh = new long[v6.size()];
+        v6EndsLow = new long[v6.size()];
+
+        for (int i = 0; i < v6.size(); i++) {
+            Range range = v6.get(i);
+            v6StartsHigh[i] = range.startHigh;
+            v6StartsLow[i] = range.startLow;
+            v6EndsHigh[i] = range.endHigh;
+            v6EndsLow[i] = range.endLow;
+        }
+    }
+
+    public boolean contains(InetAddress address) {
+        return contains(address.getAddress());
+    }
+
+    public boolean contains(byte[] address) {
+        if (address.length == 4) {
+            long value = toLong(address, 0, 4);
+            int index = floorV4(value);
+            return index >= 0 && value <= v4Ends[index];
+        }
+
+        if (address.length == 16) {
+            long high = toLong(address, 0, 8);
+            long low = toLong(address, 8, 8);
+            int index = floorV6(high, low);
+            return index >= 0 && compare(high, low, v6EndsHigh[index], v6EndsLow[index]) <= 0;
+        }
+
+        return false;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * @return Number of ranges left after overlapping and adjacent networks were merged
+     */
+    public int size() {
+        return v4Starts.length + v6StartsHigh.length;
+    }
+
+    private int floorV4(long value) {
+        int low = 0;
+        int high = v4Starts.length - 1;
+        int result = -1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+
+            if (v4Starts[mid] <= value) {
+                result = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        return result;
+    }
+
+    private int floorV6(long valueHigh, long valueLow) {
+        int low = 0;
+        int high = v6StartsHigh.length - 1;
+        int result = -1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+
+            if (compare(v6StartsHigh[mid], v6StartsLow[mid], valueHigh, valueLow) <= 0) {
+                result = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        return result;
+    }
+
+    public static CidrSet empty() {
+        return EMPTY;
+    }
+
+    public static CidrSet of(Collection<Cidr> networks) {
+        List<Range> v4 = new ArrayList<>();
+        List<Range> v6 = new ArrayList<>();
+
+        for (Cidr network : networks) {
+            byte[] bytes = network.getNetwork();
+
+            if (network.isIpv4()) {
+                long start = toLong(bytes, 0, 4);
+                long end = start | lowMask(32 - network.getPrefixLength());
+                v4.add(new Range(0, start, 0, end));
+            } else {
+                long startHigh = toLong(bytes, 0, 8);
+                long startLow = toLong(bytes, 8, 8);
+                int hostBits = 128 - network.getPrefixLength();
+                long endHigh = startHigh | lowMask(hostBits - 64);
+                long endLow = startLow | lowMask(hostBits);
+                v6.add(new Range(startHigh, startLow, endHigh, endLow));
+            }
+        }
+
+        return new CidrSet(merge(v4), merge(v6));
+    }
+
+    private static List<Range> merge(List<Range> ranges) {
+        if (ranges.isEmpty())
+            return ranges;
+
+        ranges.sort((a, b) -> compare(a.startHigh, a.startLow, b.startHigh, b.startLow));
+
+        List<Range> merged = new ArrayList<>();
+        Range current = ranges.get(0);
+
+        for (int i = 1; i < ranges.size(); i++) {
+            Range next = ranges.get(i);
+
+            if (compare(next.startHigh, next.startLow, current.endHigh, current.endLow) <= 0 || follows(current, next)) {
+                if (compare(next.endHigh, next.endLow, current.endHigh, current.endLow) > 0) {
+                    current = new Range(current.startHigh, current.startLow, next.endHigh, next.endLow);
+                }
+            } else {
+                merged.add(current);
+                current = next;
+            }
+        }
+
+        merged.add(current);
+        return merged;
+    }
+
+    /**
+     * @return true if next range starts right after the end of current one, like 10.0.0.0/9 and 10.128.0.0/9
+     */
+    private static boolean follows(Range current, Range next) {
+        long high = current.endLow == -1L ? current.endHigh + 1 : current.endHigh;
+        return next.startLow == current.endLow + 1 && next.startHigh == high;
+    }
+
+    private static int compare(long aHigh, long aLow, long bHigh, long bLow) {
+        int result = Long.compareUnsigned(aHigh, bHigh);
+        return result != 0 ? result : Long.compareUnsigned(aLow, bLow);
+    }
+
+    private static long lowMask(int bits) {
+        if (bits <= 0)
+            return 0L;
+        if (bits >= 64)
+            return -1L;
+        return (1L << bits) - 1;
+    }
+
+    private static long toLong(byte[] bytes, int offset, int length) {
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            value = (value << 8) | (bytes[i] & 0xFF);
+        }
+        return value;
+    }
+
+    private static final class Range {
+
+        private final long startHigh;
+        private final long startLow;
+        private final long endHigh;
+        private final long endLow;
+
+        private Range(long startHigh, long startLow, long endHigh, long endLow) {
+            this.startHigh = startHigh;
+            this.startLow = startLow;
+            this.endHigh = endHigh;
+            this.endLow = endLow;
+        }
+    }
+}
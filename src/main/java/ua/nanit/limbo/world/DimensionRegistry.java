@@ -25,6 +25,8 @@ import ua.nanit.limbo.server.Log;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 public final class DimensionRegistry {
@@ -81,6 +83,22 @@ public final class DimensionRegistry {
         return oldCodec;
     }
 
+    /**
+     * @return Loaded codec trees by name of file
+     */
+    public Map<String, CompoundBinaryTag> getCodecs() {
+        Map<String, CompoundBinaryTag> codecs = new LinkedHashMap<>();
+        codecs.put("codec_old", oldCodec);
+        codecs.put("codec_1_16", codec_1_16);
+        codecs.put("codec_1_18_2", codec_1_18_2);
+        codecs.put("codec_1_19", codec_1_19);
+        codecs.put("codec_1_19_1", codec_1_19_1);
+        codecs.put("codec_1_19_4", codec_1_19_4);
+        codecs.put("codec_1_20", codec_1_20);
+        codecs.put("codec_1_21", codec_1_21);
+        return codecs;
+    }
+
     public Dimension getDefaultDimension_1_16() {
         return defaultDimension_1_16;
     }
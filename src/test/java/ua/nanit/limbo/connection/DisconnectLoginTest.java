@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.connection;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import ua.nanit.limbo.protocol.ByteMessage;
+import ua.nanit.limbo.server.LimboServer;
+import ua.nanit.limbo.server.Log;
+
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DisconnectLoginTest {
+
+    // Not a protocol number of any supported version
+    private static final int UNKNOWN_PROTOCOL = 1;
+
+    private static LimboServer server;
+
+    @BeforeAll
+    static void loadServer() throws Exception {
+        server = new LimboServer();
+        server.load(Files.createTempDirectory("nanolimbo-test"));
+        Log.setLevel(0);
+    }
+
+    @AfterAll
+    static void stopTimer() {
+        server.getTimer().stop();
+    }
+
+    @Test
+    void unknownProtocolGetsReason() {
+        ClientChannelInitializer initializer = new ClientChannelInitializer(server,
+                server.getConfig().getListeners().get(0), null);
+        EmbeddedChannel channel = new EmbeddedChannel(initializer);
+
+        ByteMessage handshake = ByteMessage.create();
+        handshake.writeVarInt(0x00);
+        handshake.writeVarInt(UNKNOWN_PROTOCOL);
+        handshake.writeString("localhost");
+        handshake.writeShort(25565);
+        handshake.writeVarInt(2);
+
+        ByteMessage loginStart = ByteMessage.create();
+        loginStart.writeVarInt(0x00);
+        loginStart.writeString("unknown");
+
+        ByteMessage frames = ByteMessage.create();
+        writeFrame(frames, handshake);
+        writeFrame(frames, loginStart);
+        channel.writeInbound(frames);
+        channel.runPendingTasks();
+
+        ByteBuf written = channel.readOutbound();
+        assertNotNull(written, "Server didn't answer");
+
+        try {
+            ByteMessage msg = new ByteMessage(written);
+            int length = msg.readVarInt();
+            assertEquals(length, msg.readableBytes());
+            assertEquals(0x00, msg.readVarInt());
+            String reason = msg.readString();
+            assertTrue(reason.contains(DisconnectReason.UNSUPPORTED_VERSION.getMessage()), reason);
+        } finally {
+            written.release();
+        }
+
+        assertFalse(channel.isActive());
+    }
+
+    private static void writeFrame(ByteMessage out, ByteMessage packet) {
+        out.writeVarInt(packet.readableBytes());
+        out.writeBytes(packet);
+        packet.release();
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.server;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IpFilterTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void keepsNetworksWhenFileCantBeRead() throws Exception {
+        Path blocklist = directory.resolve("blocklist.txt");
+        IpFilter filter = new IpFilter(blocklist, directory.resolve("allowlist.txt"));
+        InetAddress address = InetAddress.getByName("10.1.2.3");
+
+        write(blocklist, "10.0.0.0/8", 1000);
+        filter.reload();
+        assertTrue(filter.isBlocked(address));
+
+        // Directory in place of the file fails to read like a file in the middle of rewrite
+        Files.delete(blocklist);
+        Files.createDirectory(blocklist);
+        Files.setLastModifiedTime(blocklist, FileTime.fromMillis(2000));
+        filter.reload();
+        assertTrue(filter.isBlocked(address));
+
+        // Readable file with the same modification time is loaded, because failed read was retried
+        Files.delete(blocklist);
+        write(blocklist, "192.168.0.0/16", 2000);
+        filter.reload();
+        assertFalse(filter.isBlocked(address));
+        assertTrue(filter.isBlocked(InetAddress.getByName("192.168.1.1")));
+
+        // Removed file clears the list
+        Files.delete(blocklist);
+        filter.reload();
+        assertFalse(filter.isBlocked(InetAddress.getByName("192.168.1.1")));
+    }
+
+    private static void write(Path file, String network, long modified) throws Exception {
+        Files.write(file, network.getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(modified));
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.tools;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import org.jetbrains.annotations.NotNull;
+import ua.nanit.limbo.LimboConstants;
+import ua.nanit.limbo.protocol.ByteMessage;
+import ua.nanit.limbo.protocol.packets.configuration.PacketFinishConfiguration;
+import ua.nanit.limbo.protocol.packets.login.*;
+import ua.nanit.limbo.protocol.packets.play.PacketJoinGame;
+import ua.nanit.limbo.protocol.packets.play.PacketKeepAlive;
+import ua.nanit.limbo.protocol.registry.State;
+import ua.nanit.limbo.protocol.registry.Version;
+import ua.nanit.limbo.util.UuidUtil;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Headless client which logs in, passes configuration and stays in the world answering keep alives.
+ * Packet ids are taken from the protocol registry, so the bot follows it for every version
+ */
+final class BotConnection extends ChannelInboundHandlerAdapter {
+
+    private final LoadGenerator.Stats stats;
+    private final Version version;
+    private final String host;
+    private final int port;
+    private final String username;
+    private final UUID uuid;
+    private final byte[] forwardingSecret;
+    private final long startedAt;
+
+    private State state = State.LOGIN;
+    private long bytesReceived;
+    private boolean joined;
+    private boolean keepAliveAnswered;
+    private boolean rejected;
+
+    /**
+     * @param forwardingSecret Velocity modern forwarding secret or null to refuse forwarding requests
+     * @param startedAt Time when connection was initiated, for join latency
+     */
+    BotConnection(LoadGenerator.Stats stats, Version version, String host, int port, String username,
+                  byte[] forwardingSecret, long startedAt) {
+        this.stats = stats;
+        this.version = version;
+        this.host = host;
+        this.port = port;
+        this.username = username;
+        this.uuid = UuidUtil.getOfflineModeUuid(username);
+        this.forwardingSecret = forwardingSecret;
+        this.startedAt = startedAt;
+    }
+
+    @Override
+    public void channelActive(@NotNull ChannelHandlerContext ctx) throws Exception {
+        stats.connected.increment();
+
+        ByteMessage handshake = new ByteMessage(ctx.alloc().buffer());
+        ClientPackets.writeHandshake(handshake, version, host, port, State.LOGIN);
+        ctx.write(handshake);
+
+        ByteMessage loginStart = new ByteMessage(ctx.alloc().buffer());
+        ClientPackets.writeLoginStart(loginStart, version, username, uuid);
+        ctx.writeAndFlush(loginStart);
+        super.channelActive(ctx);
+    }
+
+    @Override
+    public void channelInactive(@NotNull ChannelHandlerContext ctx) throws Exception {
+        if (joined) {
+            stats.closedAfterJoin.increment();
+        } else if (!rejected) {
+            stats.closedBeforeJoin.increment();
+        }
+
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void channelRead(@NotNull ChannelHandlerContext ctx, @NotNull Object msg) {
+        ByteBuf buf = (ByteBuf) msg;
+
+        try {
+            int size = buf.readableBytes();
+            bytesReceived += size;
+            stats.bytesReceived.add(size);
+
+            ByteMessage packet = new ByteMessage(buf);
+            handle(ctx, packet.readVarInt(), packet);
+        } finally {
+            buf.release();
+        }
+    }
+
+    @Override
+    public void exceptionCaught(@NotNull ChannelHandlerContext ctx, @NotNull Throwable cause) {
+        ctx.close();
+    }
+
+    private void handle(ChannelHandlerContext ctx, int packetId, ByteMessage msg) {
+        State.PacketRegistry registry = state.clientBound.getRegistry(version);
+
+        switch (state) {
+            case LOGIN:
+                if (packetId == registry.getPacketId(PacketLoginPluginRequest.class)) {
+                    answerForwarding(ctx, msg);
+                } else if (packetId == registry.getPacketId(PacketLoginSuccess.class)) {
+                    if (version.moreOrEqual(Version.V1_20_2)) {
+                        ctx.writeAndFlush(packet(ctx, State.LOGIN, PacketLoginAcknowledged.class));
+                        state = State.CONFIGURATION;
+                    } else {
+                        state = State.PLAY;
+                    }
+                } else if (packetId == registry.getPacketId(PacketDisconnect.class)) {
+                    rejected = true;
+                    stats.onRejected(msg.readString());
+                    ctx.close();
+                }
+                break;
+            case CONFIGURATION:
+                if (packetId == registry.getPacketId(PacketFinishConfiguration.class)) {
+                    ctx.writeAndFlush(packet(ctx, State.CONFIGURATION, PacketFinishConfiguration.class));
+                    state = State.PLAY;
+                } else if (packetId == registry.getPacketId(PacketKeepAlive.class)) {
+                    answerKeepAlive(ctx, msg);
+                }
+                break;
+            case PLAY:
+                if (packetId == registry.getPacketId(PacketKeepAlive.class)) {
+                    answerKeepAlive(ctx, msg);
+
+                    if (!keepAliveAnswered) {
+                        keepAliveAnswered = true;
+                        stats.bytesPerJoin.record(bytesReceived);
+                    }
+                } else if (!joined && packetId == registry.getPacketId(PacketJoinGame.class)) {
+                    joined = true;
+                    stats.joined.increment();
+                    stats.joinLatency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startedAt));
+                }
+                break;
+        }
+    }
+
+    private void answerKeepAlive(ChannelHandlerContext ctx, ByteMessage msg) {
+        // Id encoding is the same in both directions, so payload is sent back as is
+        ByteMessage answer = packet(ctx, state, PacketKeepAlive.class);
+        answer.writeBytes(msg);
+        ctx.writeAndFlush(answer);
+        stats.keepAlives.increment();
+    }
+
+    private void answerForwarding(ChannelHandlerContext ctx, ByteMessage msg) {
+        int messageId = msg.readVarInt();
+        String channel = msg.readString();
+        ByteMessage response = packet(ctx, State.LOGIN, PacketLoginPluginResponse.class);
+        response.writeVarInt(messageId);
+
+        if (forwardingSecret == null || !channel.equals(LimboConstants.VELOCITY_INFO_CHANNEL)) {
+            response.writeBoolean(false);
+            ctx.writeAndFlush(response);
+            return;
+        }
+
+        ByteMessage data = new ByteMessage(ctx.alloc().buffer());
+        data.writeVarInt(1);
+        data.writeString("127.0.0.1");
+        data.writeUuid(uuid);
+        data.writeString(username);
+        data.writeVarInt(0);
+
+        byte[] forwarded = data.toByteArray();
+        data.release();
+
+        response.writeBoolean(true);
+        response.writeBytes(sign(forwarded));
+        response.writeBytes(forwarded);
+        ctx.writeAndFlush(response);
+    }
+
+    private byte[] sign(byte[] data) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(forwardingSecret, "HmacSHA256"));
+            return mac.doFinal(data);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private ByteMessage packet(ChannelHandlerContext ctx, State state, Class<?> packetClass) {
+        ByteMessage msg = new ByteMessage(ctx.alloc().buffer());
+        ClientPackets.writeId(msg, state, version, packetClass);
+        return msg;
+    }
+
+    static byte[] secret(String secret) {
+        return secret == null ? null : secret.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.tools;
+
+import ua.nanit.limbo.protocol.ByteMessage;
+import ua.nanit.limbo.protocol.packets.PacketHandshake;
+import ua.nanit.limbo.protocol.packets.login.PacketLoginStart;
+import ua.nanit.limbo.protocol.registry.State;
+import ua.nanit.limbo.protocol.registry.Version;
+
+import java.util.UUID;
+
+/**
+ * Writers of serverbound packets which server only decodes, shared by client tools
+ */
+final class ClientPackets {
+
+    private ClientPackets() {
+    }
+
+    /**
+     * Start packet with its id from registry
+     */
+    static void writeId(ByteMessage msg, State state, Version version, Class<?> packetClass) {
+        msg.writeVarInt(state.serverBound.getRegistry(version).getPacketId(packetClass));
+    }
+
+    static void writeHandshake(ByteMessage msg, Version version, String host, int port, State nextState) {
+        writeId(msg, State.HANDSHAKING, version, PacketHandshake.class);
+        msg.writeVarInt(version.getProtocolNumber());
+        msg.writeString(host);
+        msg.writeShort(port);
+        msg.writeVarInt(nextState.ordinal());
+    }
+
+    static void writeLoginStart(ByteMessage msg, Version version, String username, UUID uuid) {
+        writeId(msg, State.LOGIN, version, PacketLoginStart.class);
+        msg.writeString(username);
+
+        if (version.moreOrEqual(Version.V1_20_2)) {
+            msg.writeUuid(uuid);
+        } else if (version.moreOrEqual(Version.V1_19_3)) {
+            msg.writeBoolean(true);
+            msg.writeUuid(uuid);
+        } else if (version.moreOrEqual(Version.V1_19)) {
+            // No signature data
+            msg.writeBoolean(false);
+
+            if (version.moreOrEqual(Version.V1_19_1)) {
+                msg.writeBoolean(true);
+                msg.writeUuid(uuid);
+            }
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.tools;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import ua.nanit.limbo.connection.ClientChannelInitializer;
+import ua.nanit.limbo.protocol.ByteMessage;
+import ua.nanit.limbo.protocol.packets.configuration.PacketFinishConfiguration;
+import ua.nanit.limbo.protocol.packets.login.PacketLoginAcknowledged;
+import ua.nanit.limbo.protocol.registry.State;
+import ua.nanit.limbo.protocol.registry.Version;
+import ua.nanit.limbo.server.LimboServer;
+import ua.nanit.limbo.server.Log;
+import ua.nanit.limbo.util.UuidUtil;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Joins server through the real client pipeline on {@link EmbeddedChannel}, without sockets and threads.
+ * Client packets are recorded once per version
+ */
+final class EmbeddedJoin {
+
+    private static final int LEGACY_SPAWN_DELAY_MILLIS = 100;
+    private static final String USERNAME = "embedded";
+
+    private final LimboServer server;
+    private final ClientChannelInitializer initializer;
+    private final Map<Version, Frames> frames = new EnumMap<>(Version.class);
+
+    EmbeddedJoin(LimboServer server) {
+        this.server = server;
+        this.initializer = new ClientChannelInitializer(server, server.getConfig().getListeners().get(0), null);
+    }
+
+    /**
+     * Load server components from --config directory, or from defaults in a temporary directory
+     */
+    static LimboServer loadServer(ToolOptions options) throws Exception {
+        Path root = options.has("config")
+                ? Paths.get(options.get("config", null))
+                : Files.createTempDirectory("nanolimbo-tools");
+
+        LimboServer server = new LimboServer();
+        server.load(root);
+        // Debug logs of packets would flood output
+        Log.setLevel(0);
+        return server;
+    }
+
+    /**
+     * Join server, wait until all spawn packets are written and close connection
+     * @param sink Receives data written by server. Data is released after sink returns
+     * @throws IllegalStateException if server didn't spawn player
+     */
+    void join(Version version, Consumer<ByteBuf> sink) {
+        Frames versionFrames = frames.computeIfAbsent(version, Frames::new);
+        long joinsBefore = server.getConnectionStats().getJoins();
+        EmbeddedChannel channel = new EmbeddedChannel(initializer);
+
+        channel.writeInbound(Unpooled.wrappedBuffer(versionFrames.login));
+        drain(channel, sink);
+
+        if (versionFrames.acknowledge != null) {
+            channel.writeInbound(Unpooled.wrappedBuffer(versionFrames.acknowledge));
+            drain(channel, sink);
+            channel.writeInbound(Unpooled.wrappedBuffer(versionFrames.finishConfiguration));
+        } else {
+            channel.advanceTimeBy(LEGACY_SPAWN_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        drain(channel, sink);
+
+        boolean joined = channel.isActive() && server.getConnectionStats().getJoins() == joinsBefore + 1;
+
+        channel.close();
+        channel.runPendingTasks();
+
+        if (!joined)
+            throw new IllegalStateException("Join of " + version + " didn't finish");
+    }
+
+    /**
+     * Run pending tasks and pass written data to sink until nothing more is written
+     */
+    private static void drain(EmbeddedChannel channel, Consumer<ByteBuf> sink) {
+        boolean written = true;
+
+        while (written) {
+            channel.runPendingTasks();
+            written = false;
+            Object msg;
+
+            while ((msg = channel.readOutbound()) != null) {
+                ByteBuf buf = (ByteBuf) msg;
+
+                try {
+                    sink.accept(buf);
+                } finally {
+                    buf.release();
+                }
+
+                written = true;
+            }
+        }
+    }
+
+    /**
+     * Client packets with length prefixes
+     */
+    private static final class Frames {
+
+        private final Version version;
+        private final byte[] login;
+        private final byte[] acknowledge;
+        private final byte[] finishConfiguration;
+
+        private Frames(Version version) {
+            this.version = version;
+
+            ByteMessage handshake = ByteMessage.create();
+            ClientPackets.writeHandshake(handshake, version, "localhost", 25565, State.LOGIN);
+            ByteMessage loginStart = ByteMessage.create();
+            ClientPackets.writeLoginStart(loginStart, version, USERNAME, UuidUtil.getOfflineModeUuid(USERNAME));
+
+            ByteMessage login = ByteMessage.create();
+            writeFrame(login, handshake);
+            writeFrame(login, loginStart);
+            this.login = login.toByteArray();
+            login.release();
+
+            if (version.moreOrEqual(Version.V1_20_2)) {
+                this.acknowledge = frame(State.LOGIN, PacketLoginAcknowledged.class);
+                this.finishConfiguration = frame(State.CONFIGURATION, PacketFinishConfiguration.class);
+            } else {
+                this.acknowledge = null;
+                this.finishConfiguration = null;
+            }
+        }
+
+        private byte[] frame(State state, Class<?> packetClass) {
+            ByteMessage packet = ByteMessage.create();
+            ClientPackets.writeId(packet, state, version, packetClass);
+            ByteMessage frame = ByteMessage.create();
+            writeFrame(frame, packet);
+            byte[] bytes = frame.toByteArray();
+            frame.release();
+            return bytes;
+        }
+
+        private static void writeFrame(ByteMessage out, ByteMessage packet) {
+            out.writeVarInt(packet.readableBytes());
+            out.writeBytes(packet);
+            packet.release();
+        }
+    }
+}
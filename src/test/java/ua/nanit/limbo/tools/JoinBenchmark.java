@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.tools;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import ua.nanit.limbo.protocol.registry.Version;
+import ua.nanit.limbo.server.LimboServer;
+import ua.nanit.limbo.server.Log;
+
+import java.lang.management.ManagementFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs joins through the real client pipeline on {@link EmbeddedChannel}s, without sockets and threads,
+ * and reports joins per second and heap bytes allocated per join for each version.
+ * Allocation is measured for the benchmark thread only, which runs the whole pipeline.
+ * <p>
+ * {@code JoinBenchmarkTest} checks allocation per join on every build.
+ * <p>
+ * Usage: {@code gradle joinBenchmark -PtoolArgs="[--option value]..."}
+ * <ul>
+ *     <li>--config: directory with settings.yml, temporary directory with defaults if not set</li>
+ *     <li>--version: protocol numbers separated by comma or "all", all by default</li>
+ *     <li>--warmup: joins per version before measuring, 2000 by default</li>
+ *     <li>--joins: measured joins per version, 5000 by default</li>
+ *     <li>--max-alloc-per-join: exit with status 1 if any version allocates more bytes per join</li>
+ * </ul>
+ */
+public final class JoinBenchmark {
+
+    private final EmbeddedJoin embeddedJoin;
+    private final com.sun.management.ThreadMXBean threads;
+    private long sent;
+
+    JoinBenchmark(LimboServer server) {
+        this.embeddedJoin = new EmbeddedJoin(server);
+        this.threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    }
+
+    public static void main(String[] args) throws Exception {
+        ToolOptions options = ToolOptions.parse(args);
+        int warmup = options.getInt("warmup", 2000);
+        int joins = options.getInt("joins", 5000);
+        long maxAlloc = options.getLong("max-alloc-per-join", 0);
+
+        LimboServer server = EmbeddedJoin.loadServer(options);
+        JoinBenchmark benchmark = new JoinBenchmark(server);
+        boolean failed = false;
+
+        for (Version version : options.getVersions("version", "all")) {
+            Result result = benchmark.run(version, warmup, joins);
+
+            Log.info("%-8s %8.0f joins/s, %8d bytes allocated per join, %7d bytes sent per join",
+                    version, result.getJoinsPerSecond(), result.getAllocatedPerJoin(), result.getSentPerJoin());
+
+            if (maxAlloc > 0 && result.getAllocatedPerJoin() > maxAlloc) {
+                Log.error("%s allocates %d bytes per join, limit is %d", version, result.getAllocatedPerJoin(), maxAlloc);
+                failed = true;
+            }
+        }
+
+        server.getTimer().stop();
+        System.exit(failed ? 1 : 0);
+    }
+
+    Result run(Version version, int warmup, int joins) {
+        // Info logs of each join would dominate the result
+        Logger logger = Logger.getLogger("Limbo");
+        Level level = logger.getLevel();
+        logger.setLevel(Level.WARNING);
+
+        try {
+            return measure(version, warmup, joins);
+        } finally {
+            logger.setLevel(level);
+        }
+    }
+
+    private Result measure(Version version, int warmup, int joins) {
+        for (int i = 0; i < warmup; i++) {
+            embeddedJoin.join(version, this::countSent);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        sent = 0;
+
+        for (int i = 0; i < joins; i++) {
+            embeddedJoin.join(version, this::countSent);
+        }
+
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        return new Result(joins / (elapsed / 1e9), allocated / joins, sent / joins);
+    }
+
+    private void countSent(ByteBuf buf) {
+        sent += buf.readableBytes();
+    }
+
+    static final class Result {
+
+        private final double joinsPerSecond;
+        private final long allocatedPerJoin;
+        private final long sentPerJoin;
+
+        private Result(double joinsPerSecond, long allocatedPerJoin, long sentPerJoin) {
+            this.joinsPerSecond = joinsPerSecond;
+            this.allocatedPerJoin = allocatedPerJoin;
+            this.sentPerJoin = sentPerJoin;
+        }
+
+        double getJoinsPerSecond() {
+            return joinsPerSecond;
+        }
+
+        long getAllocatedPerJoin() {
+            return allocatedPerJoin;
+        }
+
+        long getSentPerJoin() {
+            return sentPerJoin;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.tools;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import ua.nanit.limbo.protocol.registry.Version;
+import ua.nanit.limbo.server.LimboServer;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JoinBenchmarkTest {
+
+    // Joins allocate about 8 KB on the benchmark thread, raise deliberately when join path needs more
+    private static final long MAX_ALLOC_PER_JOIN = 16 * 1024;
+    private static final int WARMUP_JOINS = 300;
+    private static final int MEASURED_JOINS = 500;
+
+    private static LimboServer server;
+
+    @BeforeAll
+    static void loadServer() throws Exception {
+        server = EmbeddedJoin.loadServer(ToolOptions.parse(new String[0]));
+    }
+
+    @AfterAll
+    static void stopTimer() {
+        server.getTimer().stop();
+    }
+
+    @Test
+    void allocationPerJoinWithinLimit() {
+        JoinBenchmark benchmark = new JoinBenchmark(server);
+
+        for (Version version : ToolOptions.parse(new String[0]).getVersions("version", "all")) {
+            long allocated = benchmark.run(version, WARMUP_JOINS, MEASURED_JOINS).getAllocatedPerJoin();
+            assertTrue(allocated <= MAX_ALLOC_PER_JOIN,
+                    version + " allocates " + allocated + " bytes per join, limit is " + MAX_ALLOC_PER_JOIN);
+        }
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.tools;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.*;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import org.jetbrains.annotations.NotNull;
+import ua.nanit.limbo.connection.ConnectionStats;
+import ua.nanit.limbo.connection.pipeline.VarIntFrameDecoder;
+import ua.nanit.limbo.connection.pipeline.VarIntLengthEncoder;
+import ua.nanit.limbo.protocol.registry.Version;
+import ua.nanit.limbo.server.Log;
+import ua.nanit.limbo.util.Histogram;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Opens many real connections to a running limbo and drives them through login, configuration and play.
+ * Prints joins per second, join latency, bytes received per join and, if the server process id is given,
+ * its CPU usage.
+ * <p>
+ * Usage: {@code gradle loadGenerator -PtoolArgs="[--option value]..."}
+ * <ul>
+ *     <li>--host, --port: server address, 127.0.0.1:25565 by default</li>
+ *     <li>--version: protocol number or "all" to rotate supported versions, the latest by default</li>
+ *     <li>--players: number of bots, 100 by default</li>
+ *     <li>--rate: new connections per second, 500 by default</li>
+ *     <li>--duration: seconds to hold bots online after ramp, 30 by default</li>
+ *     <li>--secret: Velocity modern forwarding secret</li>
+ *     <li>--bind: comma separated local addresses to spread connections over,
+ *     since one local address has about 28k ephemeral ports for one server address</li>
+ *     <li>--threads: event loop threads, twice the number of cores by default</li>
+ *     <li>--server-pid: process id of the server to report CPU usage from /proc</li>
+ * </ul>
+ * For tens of thousands of bots raise open files limit of both processes, disable IP limits on the server
+ * and set its maxPlayers high enough
+ */
+public final class LoadGenerator {
+
+    private static final long TICK_MILLIS = 10;
+
+    private final ToolOptions options;
+    private final Stats stats = new Stats();
+    // Frame codecs count traffic into it, which is not reported by the generator
+    private final ConnectionStats codecStats = new ConnectionStats();
+
+    private LoadGenerator(ToolOptions options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new LoadGenerator(ToolOptions.parse(args)).run();
+    }
+
+    private void run() throws InterruptedException {
+        String host = options.get("host", "127.0.0.1");
+        int port = options.getInt("port", 25565);
+        int players = options.getInt("players", 100);
+        double rate = options.getDouble("rate", 500);
+        long duration = options.getLong("duration", 30);
+        int threads = options.getInt("threads", 0);
+        byte[] secret = BotConnection.secret(options.get("secret", null));
+        List<Version> versions = options.getVersions("version", String.valueOf(Version.getMax().getProtocolNumber()));
+        List<InetSocketAddress> bindAddresses = parseBindAddresses(options.get("bind", null));
+        ServerCpu serverCpu = options.has("server-pid") ? new ServerCpu(options.get("server-pid", null)) : null;
+
+        boolean epoll = Epoll.isAvailable();
+        EventLoopGroup group = epoll ? new EpollEventLoopGroup(threads) : new NioEventLoopGroup(threads);
+        Bootstrap bootstrap = new Bootstrap()
+                .group(group)
+                .channel(epoll ? EpollSocketChannel.class : NioSocketChannel.class)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 10000);
+
+        Log.info("Starting %d bots on %s:%d at %.0f per second, versions %s", players, host, port, rate, versions);
+
+        long start = System.nanoTime();
+        int started = 0;
+        double budget = 0;
+        long lastReport = start;
+        long lastJoined = 0;
+        long rampEnd = 0;
+
+        while (true) {
+            long now = System.nanoTime();
+
+            if (started < players) {
+                budget = Math.min(budget + rate * TICK_MILLIS / 1000.0, Math.max(1, rate));
+
+                while (budget >= 1 && started < players) {
+                    budget--;
+                    connect(bootstrap, host, port, versions.get(started % versions.size()),
+                            bindAddresses.isEmpty() ? null : bindAddresses.get(started % bindAddresses.size()),
+                            "bot" + started, secret);
+                    started++;
+                }
+
+                if (started == players)
+                    rampEnd = now;
+            } else if (now - rampEnd >= TimeUnit.SECONDS.toNanos(duration)) {
+                break;
+            }
+
+            if (now - lastReport >= TimeUnit.SECONDS.toNanos(1)) {
+                long joined = stats.joined.sum();
+                double seconds = (now - lastReport) / 1e9;
+                report(String.format("%.1f joins/s", (joined - lastJoined) / seconds), serverCpu);
+                lastJoined = joined;
+                lastReport = now;
+            }
+
+            Thread.sleep(TICK_MILLIS);
+        }
+
+        double total = (System.nanoTime() - start) / 1e9;
+        report(String.format("done in %.1f s", total), serverCpu);
+
+        Histogram latency = stats.joinLatency;
+        Log.info("Join latency: p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, max %.1f ms",
+                latency.getPercentile(50) / 1000.0, latency.getPercentile(90) / 1000.0,
+                latency.getPercentile(99) / 1000.0, latency.getMax() / 1000.0);
+        Log.info("Bytes received before the first keep alive: mean %.0f, max %d",
+                stats.bytesPerJoin.getMean(), stats.bytesPerJoin.getMax());
+
+        if (stats.lastRejectReason != null)
+            Log.info("Last disconnect reason: %s", stats.lastRejectReason);
+
+        group.shutdownGracefully().sync();
+    }
+
+    private void connect(Bootstrap bootstrap, String host, int port, Version version,
+                         InetSocketAddress bindAddress, String username, byte[] secret) {
+        long startedAt = System.nanoTime();
+        Bootstrap bot = bootstrap.clone().handler(new ChannelInitializer<SocketChannel>() {
+            @Override
+            protected void initChannel(@NotNull SocketChannel channel) {
+                channel.pipeline().addLast("frame_decoder", new VarIntFrameDecoder(codecStats));
+                channel.pipeline().addLast("frame_encoder", new VarIntLengthEncoder(codecStats));
+                channel.pipeline().addLast("handler",
+                        new BotConnection(stats, version, host, port, username, secret, startedAt));
+            }
+        });
+
+        ChannelFuture future = bindAddress != null
+                ? bot.connect(new InetSocketAddress(host, port), bindAddress)
+                : bot.connect(host, port);
+
+        future.addListener((ChannelFutureListener) f -> {
+            if (!f.isSuccess())
+                stats.connectFailed.increment();
+        });
+    }
+
+    private void report(String title, ServerCpu serverCpu) {
+        Histogram latency = stats.joinLatency;
+        long joined = stats.joined.sum();
+        long online = joined - stats.closedAfterJoin.sum();
+
+        Log.info("%s: %d connected, %d joined, %d online, %d rejected, %d failed, %d closed before join, "
+                        + "join p50 %.1f ms p99 %.1f ms, %.1f KB per join, %d keep alives%s",
+                title, stats.connected.sum(), joined, online, stats.rejected.sum(), stats.connectFailed.sum(),
+                stats.closedBeforeJoin.sum(), latency.getPercentile(50) / 1000.0,
+                latency.getPercentile(99) / 1000.0, stats.bytesPerJoin.getMean() / 1024.0,
+                stats.keepAlives.sum(), serverCpu != null ? String.format(", server CPU %.0f%%", serverCpu.sample()) : "");
+    }
+
+    private static List<InetSocketAddress> parseBindAddresses(String value) {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+
+        if (value != null) {
+            for (String address : value.split(",")) {
+                addresses.add(new InetSocketAddress(address.trim(), 0));
+            }
+        }
+
+        return addresses;
+    }
+
+    static final class Stats {
+
+        final LongAdder connected = new LongAdder();
+        final LongAdder connectFailed = new LongAdder();
+        final LongAdder joined = new LongAdder();
+        final LongAdder rejected = new LongAdder();
+        final LongAdder closedBeforeJoin = new LongAdder();
+        final LongAdder closedAfterJoin = new LongAdder();
+        final LongAdder keepAlives = new LongAdder();
+        final LongAdder bytesReceived = new LongAdder();
+        final Histogram joinLatency = new Histogram();
+        final Histogram bytesPerJoin = new Histogram();
+
+        volatile String lastRejectReason;
+
+        void onRejected(String reason) {
+            rejected.increment();
+            lastRejectReason = reason;
+        }
+    }
+
+    /**
+     * CPU usage of other process on Linux, read from /proc/[pid]/stat
+     */
+    private static final class ServerCpu {
+
+        // Kernel reports times in clock ticks, which are 1/100 of second on common configurations
+        private static final double TICKS_PER_SECOND = 100;
+
+        private final String pid;
+        private long lastTicks = -1;
+        private long lastSampleAt;
+
+        private ServerCpu(String pid) {
+            this.pid = pid;
+        }
+
+        /**
+         * @return Percent of one core used since the previous sample
+         */
+        private double sample() {
+            long now = System.nanoTime();
+            long ticks;
+
+            try {
+                String stat = new String(Files.readAllBytes(Paths.get("/proc", pid, "stat")));
+                // Fields after process name, which may contain spaces
+                String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+                ticks = Long.parseLong(fields[11]) + Long.parseLong(fields[12]);
+            } catch (IOException | RuntimeException e) {
+                return -1;
+            }
+
+            double percent = lastTicks < 0 ? 0
+                    : (ticks - lastTicks) / TICKS_PER_SECOND / ((now - lastSampleAt) / 1e9) * 100;
+            lastTicks = ticks;
+            lastSampleAt = now;
+            return percent;
+        }
+    }
+}
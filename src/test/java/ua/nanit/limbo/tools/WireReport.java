@@ -0,0 +1,390 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.tools;
+
+import io.netty.buffer.ByteBuf;
+import ua.nanit.limbo.connection.PacketSnapshots;
+import ua.nanit.limbo.protocol.ByteMessage;
+import ua.nanit.limbo.protocol.Packet;
+import ua.nanit.limbo.protocol.packets.configuration.PacketFinishConfiguration;
+import ua.nanit.limbo.protocol.packets.login.PacketLoginSuccess;
+import ua.nanit.limbo.protocol.registry.State;
+import ua.nanit.limbo.protocol.registry.Version;
+import ua.nanit.limbo.server.LimboServer;
+import ua.nanit.limbo.server.Log;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+
+/**
+ * Reports bytes which server sends during join of each version, for every packet and in total.
+ * Compressed sizes are estimated as if client enabled protocol compression with the given threshold.
+ * <p>
+ * Golden file keeps state, name, size and digest of every packet. Snapshots are built with fixed
+ * teleport id, and packets which still change between server starts, like ones with random UUIDs,
+ * are recorded without size and digest. {@code WireReportTest} checks golden file and budget on every build.
+ * <p>
+ * Usage: {@code gradle wireReport -PtoolArgs="[--option value]..."}, paths are relative to project directory.
+ * Golden file is updated by {@code --write-golden src/test/resources/wire-golden.txt}
+ * <ul>
+ *     <li>--config: directory with settings.yml, temporary directory with defaults if not set</li>
+ *     <li>--version: protocol numbers separated by comma or "all", all by default</li>
+ *     <li>--detail: print every packet, false by default</li>
+ *     <li>--threshold: compression threshold in bytes, 256 by default, -1 to skip compressed sizes</li>
+ *     <li>--budget: exit with status 1 if any version sends more bytes per join</li>
+ *     <li>--compressed-budget: the same for compressed size</li>
+ *     <li>--write-golden: write golden file</li>
+ *     <li>--golden: exit with status 1 if packets differ from golden file</li>
+ * </ul>
+ */
+public final class WireReport {
+
+    private static final int DIGEST_LENGTH = 16;
+    private static final int TELEPORT_ID = 1;
+    private static final String VARIABLE = "*";
+
+    private final LimboServer server;
+    private final EmbeddedJoin embeddedJoin;
+    private final int threshold;
+    private final Deflater deflater = new Deflater();
+
+    WireReport(LimboServer server, int threshold) {
+        this.server = server;
+        this.embeddedJoin = new EmbeddedJoin(server);
+        this.threshold = threshold;
+    }
+
+    public static void main(String[] args) throws Exception {
+        ToolOptions options = ToolOptions.parse(args);
+        boolean detail = Boolean.parseBoolean(options.get("detail", "false"));
+        long budget = options.getLong("budget", 0);
+        long compressedBudget = options.getLong("compressed-budget", 0);
+        LimboServer server = EmbeddedJoin.loadServer(options);
+        WireReport report = new WireReport(server, options.getInt("threshold", 256));
+
+        Map<Version, List<Sent>> joins = report.run(options.getVersions("version", "all"));
+        boolean failed = false;
+
+        for (Map.Entry<Version, List<Sent>> entry : joins.entrySet()) {
+            failed |= report.print(entry.getKey(), entry.getValue(), detail, budget, compressedBudget);
+        }
+
+        if (options.has("write-golden")) {
+            Path path = Paths.get(options.get("write-golden", null));
+            Files.write(path, golden(joins), StandardCharsets.UTF_8);
+            Log.info("Golden file written to %s", path);
+        }
+
+        if (options.has("golden")) {
+            Path path = Paths.get(options.get("golden", null));
+            List<String> differences = compareGolden(Files.readAllLines(path, StandardCharsets.UTF_8), joins);
+
+            for (String difference : differences) {
+                Log.error(difference);
+            }
+
+            if (differences.isEmpty())
+                Log.info("All packets match golden file %s", path);
+
+            failed |= !differences.isEmpty();
+        }
+
+        server.getTimer().stop();
+        System.exit(failed ? 1 : 0);
+    }
+
+    /**
+     * Join every version twice with rebuilt snapshots and mark packets which differ between joins
+     * @return Packets sent to each version
+     */
+    Map<Version, List<Sent>> run(List<Version> versions) {
+        Map<Version, List<Sent>> joins = new LinkedHashMap<>();
+        PacketSnapshots.initPackets(server, TELEPORT_ID);
+
+        for (Version version : versions) {
+            joins.put(version, join(version));
+        }
+
+        PacketSnapshots.initPackets(server, TELEPORT_ID);
+
+        for (Version version : versions) {
+            List<Sent> first = joins.get(version);
+            List<Sent> second = join(version);
+
+            for (int i = 0; i < first.size() && i < second.size(); i++) {
+                if (!first.get(i).digest.equals(second.get(i).digest))
+                    first.get(i).variable = true;
+            }
+        }
+
+        return joins;
+    }
+
+    /**
+     * @return Bytes sent during join including length prefixes
+     */
+    static long total(List<Sent> packets) {
+        long total = 0;
+
+        for (Sent packet : packets) {
+            total += packet.size;
+        }
+
+        return total;
+    }
+
+    private List<Sent> join(Version version) {
+        List<Sent> packets = new ArrayList<>();
+        FrameReader reader = new FrameReader(version, packets);
+        Logger logger = Logger.getLogger("Limbo");
+        Level level = logger.getLevel();
+
+        logger.setLevel(Level.WARNING);
+
+        try {
+            embeddedJoin.join(version, reader::read);
+        } finally {
+            logger.setLevel(level);
+        }
+
+        return packets;
+    }
+
+    /**
+     * @return true if budget is exceeded
+     */
+    private boolean print(Version version, List<Sent> packets, boolean detail, long budget, long compressedBudget) {
+        long raw = 0;
+        long compressed = 0;
+        Sent largest = null;
+
+        for (Sent packet : packets) {
+            raw += packet.size;
+            compressed += packet.compressedSize;
+
+            if (largest == null || packet.size > largest.size)
+                largest = packet;
+
+            if (detail) {
+                Log.info("  %-13s %-28s %7d %7s", packet.state, packet.name, packet.size,
+                        threshold >= 0 ? String.valueOf(packet.compressedSize) : "-");
+            }
+        }
+
+        Log.info("%-8s %3d packets, %7d bytes, %7s compressed, largest %s %d bytes", version, packets.size(), raw,
+                threshold >= 0 ? String.valueOf(compressed) : "-", largest != null ? largest.name : "-",
+                largest != null ? largest.size : 0);
+
+        boolean exceeded = false;
+
+        if (budget > 0 && raw > budget) {
+            Log.error("%s sends %d bytes per join, budget is %d", version, raw, budget);
+            exceeded = true;
+        }
+
+        if (compressedBudget > 0 && threshold >= 0 && compressed > compressedBudget) {
+            Log.error("%s sends %d compressed bytes per join, budget is %d", version, compressed, compressedBudget);
+            exceeded = true;
+        }
+
+        return exceeded;
+    }
+
+    private static List<String> golden(Map<Version, List<Sent>> joins) {
+        List<String> lines = new ArrayList<>();
+        lines.add("# protocol state packet size digest");
+
+        for (Map.Entry<Version, List<Sent>> entry : joins.entrySet()) {
+            for (Sent packet : entry.getValue()) {
+                lines.add(entry.getKey().getProtocolNumber() + " " + packet);
+            }
+        }
+
+        return lines;
+    }
+
+    /**
+     * @param lines Lines of golden file
+     * @return Description of the first different packet of each version, empty if all versions match
+     */
+    static List<String> compareGolden(List<String> lines, Map<Version, List<Sent>> joins) {
+        Map<Integer, List<String>> expected = new HashMap<>();
+
+        for (String line : lines) {
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+
+            int separator = line.indexOf(' ');
+            expected.computeIfAbsent(Integer.parseInt(line.substring(0, separator)), k -> new ArrayList<>())
+                    .add(line.substring(separator + 1));
+        }
+
+        List<String> differences = new ArrayList<>();
+
+        for (Map.Entry<Version, List<Sent>> entry : joins.entrySet()) {
+            Version version = entry.getKey();
+            List<String> expectedPackets = expected.getOrDefault(version.getProtocolNumber(), Collections.emptyList());
+            List<Sent> actual = entry.getValue();
+
+            for (int i = 0; i < Math.max(expectedPackets.size(), actual.size()); i++) {
+                String expectedPacket = i < expectedPackets.size() ? expectedPackets.get(i) : "nothing";
+                String actualPacket = i < actual.size() ? actual.get(i).toString() : "nothing";
+
+                if (!expectedPacket.equals(actualPacket)) {
+                    differences.add(String.format("%s packet #%d differs from golden file: expected %s, got %s",
+                            version, i, expectedPacket, actualPacket));
+                    break;
+                }
+            }
+        }
+
+        return differences;
+    }
+
+    /**
+     * Splits data written by server into packets and follows state of connection
+     */
+    private final class FrameReader {
+
+        private final Version version;
+        private final List<Sent> packets;
+        private State state = State.LOGIN;
+
+        private FrameReader(Version version, List<Sent> packets) {
+            this.version = version;
+            this.packets = packets;
+        }
+
+        private void read(ByteBuf buf) {
+            ByteMessage msg = new ByteMessage(buf);
+
+            while (msg.isReadable()) {
+                int start = msg.readerIndex();
+                int length = msg.readVarInt();
+                int bodyStart = msg.readerIndex();
+                int packetId = msg.readVarInt();
+
+                byte[] frame = new byte[bodyStart - start + length];
+                msg.getBytes(start, frame);
+                msg.readerIndex(bodyStart + length);
+
+                State.PacketRegistry registry = state.clientBound.getRegistry(version);
+                Packet packet = registry.getPacket(packetId);
+                String name = packet != null ? packet.getClass().getSimpleName() : String.format("0x%02X", packetId);
+
+                packets.add(new Sent(state, name, frame.length,
+                        threshold >= 0 ? compressedSize(frame, bodyStart - start, length) : 0, digest(frame)));
+
+                if (state == State.LOGIN && packetId == registry.getPacketId(PacketLoginSuccess.class)) {
+                    state = version.moreOrEqual(Version.V1_20_2) ? State.CONFIGURATION : State.PLAY;
+                } else if (state == State.CONFIGURATION && packetId == registry.getPacketId(PacketFinishConfiguration.class)) {
+                    state = State.PLAY;
+                }
+            }
+        }
+    }
+
+    /**
+     * Size of frame in compressed protocol: length prefix, uncompressed length and zlib data,
+     * or zero uncompressed length and raw data for packets below threshold
+     */
+    private int compressedSize(byte[] frame, int bodyOffset, int length) {
+        int dataSize;
+        int dataLengthSize;
+
+        if (length >= threshold) {
+            deflater.reset();
+            deflater.setInput(frame, bodyOffset, length);
+            deflater.finish();
+
+            byte[] out = new byte[length + 64];
+            dataSize = 0;
+
+            while (!deflater.finished()) {
+                dataSize += deflater.deflate(out);
+            }
+
+            dataLengthSize = varIntSize(length);
+        } else {
+            dataSize = length;
+            dataLengthSize = 1;
+        }
+
+        return varIntSize(dataLengthSize + dataSize) + dataLengthSize + dataSize;
+    }
+
+    private static int varIntSize(int value) {
+        int size = 1;
+
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+
+        return size;
+    }
+
+    private static String digest(byte[] data) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(data);
+            StringBuilder hex = new StringBuilder();
+
+            for (int i = 0; i < DIGEST_LENGTH / 2; i++) {
+                hex.append(String.format("%02x", hash[i]));
+            }
+
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static final class Sent {
+
+        private final State state;
+        private final String name;
+        private final int size;
+        private final int compressedSize;
+        private final String digest;
+        private boolean variable;
+
+        private Sent(State state, String name, int size, int compressedSize, String digest) {
+            this.state = state;
+            this.name = name;
+            this.size = size;
+            this.compressedSize = compressedSize;
+            this.digest = digest;
+        }
+
+        @Override
+        public String toString() {
+            // Size of variable packet may change too, e.g. when it has VarInt of random value
+            return variable
+                    ? state + " " + name + " " + VARIABLE + " " + VARIABLE
+                    : state + " " + name + " " + size + " " + digest;
+        }
+    }
+}
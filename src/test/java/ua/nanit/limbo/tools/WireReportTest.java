@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.tools;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import ua.nanit.limbo.protocol.registry.Version;
+import ua.nanit.limbo.server.LimboServer;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WireReportTest {
+
+    // Raise deliberately when a change makes join bigger, the largest join is about 45 KB
+    private static final long MAX_BYTES_PER_JOIN = 48 * 1024;
+
+    private static LimboServer server;
+    private static Map<Version, List<WireReport.Sent>> joins;
+
+    @BeforeAll
+    static void joinAllVersions() throws Exception {
+        ToolOptions options = ToolOptions.parse(new String[0]);
+        server = EmbeddedJoin.loadServer(options);
+        joins = new WireReport(server, -1).run(options.getVersions("version", "all"));
+    }
+
+    @AfterAll
+    static void stopTimer() {
+        server.getTimer().stop();
+    }
+
+    @Test
+    void bytesPerJoinWithinBudget() {
+        for (Map.Entry<Version, List<WireReport.Sent>> entry : joins.entrySet()) {
+            long total = WireReport.total(entry.getValue());
+            assertTrue(total <= MAX_BYTES_PER_JOIN,
+                    entry.getKey() + " sends " + total + " bytes per join, budget is " + MAX_BYTES_PER_JOIN);
+        }
+    }
+
+    @Test
+    void packetsMatchGoldenFile() throws Exception {
+        List<String> golden;
+
+        try (InputStream in = WireReportTest.class.getResourceAsStream("/wire-golden.txt")) {
+            assertNotNull(in, "wire-golden.txt is missing from test resources");
+            golden = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)).lines()
+                    .collect(Collectors.toList());
+        }
+
+        List<String> differences = WireReport.compareGolden(golden, joins);
+        assertTrue(differences.isEmpty(), String.join("\n", differences)
+                + "\nUpdate golden file with gradle wireReport -PtoolArgs=\"--write-golden src/test/resources/wire-golden.txt\""
+                + " if the change is intended");
+    }
+}
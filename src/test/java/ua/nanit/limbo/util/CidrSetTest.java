@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2020 Nan1t
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ua.nanit.limbo.util;
+
+import io.netty.util.NetUtil;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CidrSetTest {
+
+    private static final int LARGE_SET_SIZE = 100_000;
+
+    @Test
+    void mergesOverlappingAndAdjacentRanges() {
+        CidrSet set = set("10.0.0.0/8", "10.1.0.0/16", "10.255.255.255",
+                "11.0.0.0/9", "11.128.0.0/9", "192.168.0.0/24");
+
+        // 10.0.0.0 - 11.255.255.255 and 192.168.0.0/24
+        assertEquals(2, set.size());
+        assertTrue(set.contains(ip("10.0.0.0")));
+        assertTrue(set.contains(ip("11.255.255.255")));
+        assertFalse(set.contains(ip("12.0.0.0")));
+        assertFalse(set.contains(ip("9.255.255.255")));
+        assertFalse(set.contains(ip("192.168.1.0")));
+
+        // One address between the networks keeps them apart
+        assertEquals(2, set("10.0.0.0/24", "10.0.1.1/32").size());
+
+        // Range ending at the last address of the lower half of IPv6 address
+        CidrSet v6 = set("::ffff:ffff:ffff:ffff/128", "0:0:0:1::/64");
+        assertEquals(1, v6.size());
+        assertTrue(v6.contains(ip("0:0:0:1:ffff:ffff:ffff:ffff")));
+        assertFalse(v6.contains(ip("0:0:0:2::")));
+    }
+
+    @Test
+    void ipv4Boundaries() {
+        CidrSet set = set("192.168.1.0/24", "8.8.8.8/32");
+
+        assertTrue(set.contains(ip("192.168.1.0")));
+        assertTrue(set.contains(ip("192.168.1.255")));
+        assertFalse(set.contains(ip("192.168.0.255")));
+        assertFalse(set.contains(ip("192.168.2.0")));
+        assertTrue(set.contains(ip("8.8.8.8")));
+        assertFalse(set.contains(ip("8.8.8.7")));
+        assertFalse(set.contains(ip("8.8.8.9")));
+
+        CidrSet all = set("0.0.0.0/0");
+        assertEquals(1, all.size());
+        assertTrue(all.contains(ip("0.0.0.0")));
+        assertTrue(all.contains(ip("255.255.255.255")));
+        assertFalse(all.contains(ip("::")));
+    }
+
+    @Test
+    void ipv6Boundaries() {
+        // Prefix crossing the 64-bit halves of the address
+        CidrSet set = set("2001:db8::/32", "2001:db9:0:0:8000::/65", "::1/128");
+
+        assertTrue(set.contains(ip("2001:db8::")));
+        assertTrue(set.contains(ip("2001:db8:ffff:ffff:ffff:ffff:ffff:ffff")));
+        assertFalse(set.contains(ip("2001:db7:ffff:ffff:ffff:ffff:ffff:ffff")));
+        assertTrue(set.contains(ip("2001:db9:0:0:8000::")));
+        assertTrue(set.contains(ip("2001:db9:0:0:ffff:ffff:ffff:ffff")));
+        assertFalse(set.contains(ip("2001:db9:0:0:7fff:ffff:ffff:ffff")));
+        assertFalse(set.contains(ip("2001:db9:0:1::")));
+        assertTrue(set.contains(ip("::1")));
+        assertFalse(set.contains(ip("::")));
+        assertFalse(set.contains(ip("::2")));
+
+        CidrSet all = set("::/0");
+        assertEquals(1, all.size());
+        assertTrue(all.contains(ip("::")));
+        assertTrue(all.contains(ip("ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff")));
+        assertFalse(all.contains(ip("0.0.0.0")));
+    }
+
+    @Test
+    void emptySetContainsNothing() {
+        assertTrue(CidrSet.empty().isEmpty());
+        assertFalse(CidrSet.empty().contains(ip("127.0.0.1")));
+        assertFalse(CidrSet.empty().contains(ip("::1")));
+        assertFalse(CidrSet.empty().contains(new byte[5]));
+    }
+
+    @Test
+    void largeSetMatchesLinearScan() {
+        Random random = new Random(42);
+        List<Cidr> networks = randomNetworks(random, LARGE_SET_SIZE);
+
+        CidrSet set = CidrSet.of(networks);
+
+        // Network addresses are always inside, random addresses are checked against every network
+        for (int i = 0; i < 1_000; i++) {
+            Cidr network = networks.get(random.nextInt(networks.size()));
+            assertTrue(set.contains(network.getNetwork()), network.toString());
+        }
+
+        int hits = 0;
+        int checks = 200;
+
+        for (int i = 0; i < checks; i++) {
+            byte[] address = randomAddress(random, i % 4 == 0 ? 16 : 4);
+            boolean expected = networks.stream().anyMatch(network -> network.contains(address));
+            assertEquals(expected, set.contains(address), Arrays.toString(address));
+
+            if (expected)
+                hits++;
+        }
+
+        // Both outcomes must be covered by the comparison
+        assertTrue(hits > 0 && hits < checks, hits + " of " + checks + " addresses matched");
+    }
+
+    private static List<Cidr> randomNetworks(Random random, int count) {
+        List<Cidr> networks = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            if (i % 4 == 0) {
+                networks.add(Cidr.parse(NetUtil.bytesToIpAddress(randomAddress(random, 16)) + "/" + (24 + random.nextInt(105))));
+            } else {
+                networks.add(Cidr.parse(NetUtil.bytesToIpAddress(randomAddress(random, 4)) + "/" + (12 + random.nextInt(21))));
+            }
+        }
+
+        return networks;
+    }
+
+    private static byte[] randomAddress(Random random, int length) {
+        byte[] address = new byte[length];
+        random.nextBytes(address);
+
+        // Keep IPv6 addresses in a narrow block so random lookups hit its networks
+        if (length == 16) {
+            address[0] = 0x20;
+            address[1] = 0x01;
+        }
+
+        return address;
+    }
+
+    private static CidrSet set(String... networks) {
+        List<Cidr> list = new ArrayList<>();
+        for (String network : networks) {
+            list.add(Cidr.parse(network));
+        }
+        return CidrSet.of(list);
+    }
+
+    private static byte[] ip(String address) {
+        return Cidr.parse(address).getNetwork();
+    }
+}